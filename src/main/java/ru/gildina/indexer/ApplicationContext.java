@@ -6,13 +6,15 @@ import ru.gildina.indexer.service.SearchService;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 public class ApplicationContext {
     private static ApplicationContext instance;
+    private final Map<Class<?>, Supplier<?>> factories = new HashMap<>();
     private final Map<Class<?>, Object> beans = new HashMap<>();
 
     private ApplicationContext() {
-        initializeBeans();
+        registerBeans();
     }
 
     public static synchronized ApplicationContext getInstance() {
@@ -23,18 +25,23 @@ public class ApplicationContext {
     }
 
     @SuppressWarnings("unchecked")
-    public <T> T getBean(Class<T> beanClass) {
-        return (T) beans.get(beanClass);
+    public synchronized <T> T getBean(Class<T> beanClass) {
+        Object bean = beans.get(beanClass);
+        if (bean == null) {
+            Supplier<?> factory = factories.get(beanClass);
+            if (factory == null) {
+                return null;
+            }
+            bean = factory.get();
+            beans.put(beanClass, bean);
+        }
+        return (T) bean;
     }
 
-    private void initializeBeans() {
-        // Инициализируем бины в правильном порядке
-        ConnectSQLLite connectSQLLite = ConnectSQLLite.getInstance();
-        DatabaseManager databaseManager = new DatabaseManager();
-        SearchService searchService = new SearchService(databaseManager);
-
-        beans.put(ConnectSQLLite.class, connectSQLLite);
-        beans.put(DatabaseManager.class, databaseManager);
-        beans.put(SearchService.class, searchService);
+    private void registerBeans() {
+        // Бины создаются при первом обращении: поиск по снимку индекса не открывает базу
+        factories.put(ConnectSQLLite.class, ConnectSQLLite::getInstance);
+        factories.put(DatabaseManager.class, DatabaseManager::new);
+        factories.put(SearchService.class, () -> new SearchService(getBean(DatabaseManager.class)));
     }
 }
@@ -2,12 +2,22 @@ package ru.gildina.indexer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.gildina.indexer.extract.ExtractorRegistry;
 import ru.gildina.indexer.database.ConnectSQLLite;
 import ru.gildina.indexer.database.DatabaseManager;
+import ru.gildina.indexer.database.DirectoryTable;
 import ru.gildina.indexer.model.FileIndexEntry;
+import ru.gildina.indexer.model.Quarantine;
 import ru.gildina.indexer.monitor.MemoryMonitor;
 import ru.gildina.indexer.service.FileWalker;
+import ru.gildina.indexer.service.SearchFacets;
+import ru.gildina.indexer.service.SearchOptions;
+import ru.gildina.indexer.service.SearchResult;
 import ru.gildina.indexer.service.SearchService;
+import ru.gildina.indexer.service.SpimiIndexBuilder;
+import ru.gildina.indexer.snapshot.IndexSnapshot;
+import ru.gildina.indexer.snapshot.SnapshotWriter;
+import ru.gildina.indexer.util.AppConfig;
 import ru.gildina.indexer.util.PDFTextExtractor;
 import ru.gildina.indexer.util.PathUtils;
 
@@ -17,6 +27,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,8 +37,7 @@ import java.util.Scanner;
 public class FileIndexerApp {
     private static final Logger logger = LoggerFactory.getLogger(FileIndexerApp.class);
 
-    private final DatabaseManager databaseManager;
-    private final SearchService searchService;
+    private final ApplicationContext context;
     static {
         // Устанавливаем UTF-8 кодировку через системные свойства
         System.setProperty("file.encoding", "UTF-8");
@@ -48,9 +58,15 @@ public class FileIndexerApp {
     }
 
     public FileIndexerApp() {
-        ApplicationContext context = ApplicationContext.getInstance();
-        this.databaseManager = context.getBean(DatabaseManager.class);
-        this.searchService = context.getBean(SearchService.class);
+        this.context = ApplicationContext.getInstance();
+    }
+
+    private DatabaseManager databaseManager() {
+        return context.getBean(DatabaseManager.class);
+    }
+
+    private SearchService searchService() {
+        return context.getBean(SearchService.class);
     }
 
     public static void main(String[] args) {
@@ -106,14 +122,28 @@ public class FileIndexerApp {
                     System.out.println("Error: Specify search query: --search-name <query>");
                     return;
                 }
-                search(args[1], SearchService.SearchType.FILE_NAME);
+                search(args[1], SearchService.SearchType.FILE_NAME, joinFilters(args));
                 break;
             case "--search-content":
                 if (args.length < 2) {
                     System.out.println("Error: Specify search query: --search-content <query>");
                     return;
                 }
-                search(args[1], SearchService.SearchType.CONTENT);
+                search(args[1], SearchService.SearchType.CONTENT, joinFilters(args));
+                break;
+            case "--export-snapshot":
+                if (args.length < 2) {
+                    System.out.println("Error: Specify snapshot file: --export-snapshot <file>");
+                    return;
+                }
+                exportSnapshot(args[1]);
+                break;
+            case "--snapshot":
+                if (args.length < 4) {
+                    System.out.println("Error: Usage: --snapshot <file> --search-content|--search-name <query>");
+                    return;
+                }
+                searchSnapshot(args[1], args[2], args[3]);
                 break;
             case "--clear":
                 clearIndex();
@@ -143,6 +173,13 @@ public class FileIndexerApp {
         System.out.println("  --index <path>              Index directory and all subdirectories");
         System.out.println("  --search-name <query>       Search files by name (supports partial matching)");
         System.out.println("  --search-content <query>    Search files by content (full-text search)");
+        System.out.println("      [ext=<ext>] [dir=<dir>] [size=<bucket>] [date=<bucket>]  Optional facet filters");
+        System.out.println("      [under=<directory>]     Only files inside an indexed directory subtree");
+        System.out.println("      size: <10KB, 10KB-1MB, 1MB-10MB, 10MB-100MB, >100MB");
+        System.out.println("      date: day, week, month, year, older");
+        System.out.println("  --export-snapshot <file>    Export read-only index snapshot for fast search");
+        System.out.println("  --snapshot <file> --search-content|--search-name <query>");
+        System.out.println("                              Search a snapshot without opening the database");
         System.out.println("  --clear                     Clear all indexed data");
         System.out.println("  --stats                     Show indexing statistics");
         System.out.println("  --help, -h                  Show this help message");
@@ -151,6 +188,7 @@ public class FileIndexerApp {
         System.out.println("  java -jar file-indexer.jar --index /path/to/documents");
         System.out.println("  java -jar file-indexer.jar --search-name \"report\"");
         System.out.println("  java -jar file-indexer.jar --search-content \"database\"");
+        System.out.println("  java -jar file-indexer.jar --search-content \"database\" ext=pdf date=year");
         System.out.println("  java -jar file-indexer.jar --clear");
         System.out.println("  java -jar file-indexer.jar --stats");
         System.out.println();
@@ -198,12 +236,16 @@ public class FileIndexerApp {
                 case "2":
                     System.out.print("Enter the file name to search for: ");
                     String fileName = scanner.nextLine().trim();
-                    search(fileName, SearchService.SearchType.FILE_NAME);
+                    System.out.print("Directory (under=), Enter - everywhere: ");
+                    String scope = scanner.nextLine().trim();
+                    search(fileName, SearchService.SearchType.FILE_NAME, scope.isEmpty() ? "" : "under=" + scope);
                     break;
                 case "3":
                     System.out.print("Enter text to search in content: ");
                     String content = scanner.nextLine().trim();
-                    search(content, SearchService.SearchType.CONTENT);
+                    System.out.print("Filters (ext=, dir=, size=, date=, under=), Enter - none: ");
+                    String filters = scanner.nextLine().trim();
+                    search(content, SearchService.SearchType.CONTENT, filters);
                     break;
                 case "4":
                     clearIndex();
@@ -260,7 +302,7 @@ public class FileIndexerApp {
 
             // 1. Точный поиск по нормализованному пути
             try {
-                List<FileIndexEntry> exactResults = searchService.searchByExactNormalizedPath(normalizedInput);
+                List<FileIndexEntry> exactResults = searchService().searchByExactNormalizedPath(normalizedInput);
                 results.addAll(exactResults);
             } catch (Exception e) {
                 System.out.println("Точный поиск не дал результатов");
@@ -269,7 +311,7 @@ public class FileIndexerApp {
             // 2. Поиск по частичному пути (если точный не нашел)
             if (results.isEmpty()) {
                 try {
-                    List<FileIndexEntry> partialResults = searchService.searchByPartialPath(normalizedInput);
+                    List<FileIndexEntry> partialResults = searchService().searchByPartialPath(normalizedInput);
                     results.addAll(partialResults);
                 } catch (Exception e) {
                     System.out.println("Поиск по частичному пути не дал результатов");
@@ -280,7 +322,7 @@ public class FileIndexerApp {
             if (results.isEmpty()) {
                 try {
                     String fileName = extractFileNameFromPath(normalizedInput);
-                    List<FileIndexEntry> nameResults = searchService.searchByFileNamePartial(fileName);
+                    List<FileIndexEntry> nameResults = searchService().searchByFileNamePartial(fileName);
                     results.addAll(nameResults);
                 } catch (Exception e) {
                     System.out.println("Поиск по имени файла не дал результатов");
@@ -337,7 +379,7 @@ public class FileIndexerApp {
 
         // Показываем статистику индекса
         try {
-            long totalFiles = databaseManager.getIndexedFilesCount();
+            long totalFiles = databaseManager().getIndexedFilesCount();
             System.out.println("Текущая статистика индекса:");
             System.out.println("   Всего проиндексировано файлов: " + totalFiles);
             if (totalFiles == 0) {
@@ -407,7 +449,7 @@ public class FileIndexerApp {
         try {
             // ЗАГРУЖАЕМ СЛОВА ИЗ БАЗЫ ДАННЫХ!
             System.out.println("Загрузка слов из базы данных...");
-            searchService.loadWordsForFile(file);
+            searchService().loadWordsForFile(file);
 
         } catch (Exception e) {
             System.out.println("Не удалось загрузить слова из базы: " + e.getMessage());
@@ -434,9 +476,7 @@ public class FileIndexerApp {
         // Показываем самые частые слова
         if (file.getTotalWords() > 0) {
             System.out.println("\nТоп-10 самых частых слов:");
-            file.getWordCounts().entrySet().stream()
-                    .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
-                    .limit(10)
+            file.getTopWords(10)
                     .forEach(entry ->
                             System.out.printf("   %s: %d раз\n", entry.getKey(), entry.getValue())
                     );
@@ -490,16 +530,29 @@ public class FileIndexerApp {
     }
 
     private void indexDirectory(String directoryPath, List<String> extensions) {
-        try {
+        try (SpimiIndexBuilder indexBuilder = new SpimiIndexBuilder()) {
             System.out.println("Начало индексации директории: " + directoryPath);
             // Показываем состояние памяти до начала
             MemoryMonitor.printHeapInfo();
             FileWalker fileWalker = new FileWalker(extensions);
-            List<FileIndexEntry> entries = fileWalker.walkDirectory(directoryPath);
+            Quarantine quarantine = databaseManager().loadQuarantine();
+            fileWalker.setQuarantine(quarantine);
+            List<FileIndexEntry> entries;
+            try {
+                entries = fileWalker.walkDirectory(directoryPath, indexBuilder);
+            } finally {
+                // Карантин сохраняется и при ошибке обхода, чтобы проблемные файлы не разбирались снова
+                databaseManager().saveQuarantine(quarantine);
+            }
+            if (fileWalker.getQuarantinedFilesCount() > 0) {
+                System.out.println("Файлов в карантине (текст не извлекался): " + fileWalker.getQuarantinedFilesCount());
+            }
 
             System.out.println("Найдено файлов для индексации: " + entries.size());
             // Показываем состояние памяти после обхода файлов
             MemoryMonitor.printHeapInfo();
+            System.out.println("Записей слово-файл: " + indexBuilder.getTotalPostings() +
+                    ", сброшено на диск прогонов: " + indexBuilder.getRunCount());
 
             if (entries.isEmpty()) {
                 System.out.println("Файлы не найдены!");
@@ -517,7 +570,8 @@ public class FileIndexerApp {
             debugFileEntries(entries);
 
             // Используем пакетное сохранение
-            databaseManager.saveFileEntriesBatch(entries);
+            databaseManager().saveFileEntriesBatch(entries, indexBuilder.getDictionary(), indexBuilder.finish(),
+                    indexBuilder.getFrequentTermIds());
             // Показываем финальное состояние памяти
             MemoryMonitor.printHeapInfo();
             MemoryMonitor.printGCInfo();
@@ -536,12 +590,23 @@ public class FileIndexerApp {
         }
     }
 
-    private void search(String query, SearchService.SearchType searchType) {
+    private void search(String query, SearchService.SearchType searchType, String filters) {
         try {
-            List<FileIndexEntry> results = searchService.search(query, searchType);
+            // По умолчанию по содержимому ищется подстрока; при search.top.k > 0 - только лучшие
+            // совпадения по словам запроса (top-K поиск не перебирает остальные)
+            SearchOptions options = searchType == SearchService.SearchType.CONTENT
+                    ? new SearchOptions(AppConfig.getInt("search.top.k", 0)).withFacets(true)
+                    : SearchOptions.DEFAULT;
+            options = applyFilters(options, filters);
+            SearchResult result = searchService().searchWithFacets(query, searchType, options);
+            List<FileIndexEntry> results = result.getHits();
 
             // Показываем время модификации в результатах поиска
-            searchService.printSearchResultsWithTime(results, query, searchType);
+            searchService().printSearchResultsWithTime(result, query, searchType);
+            if (result.getFacets() != null && result.getTotalHits() > 0) {
+                System.out.println("Всего совпадений: " + result.getTotalHitsText());
+                result.getFacets().print();
+            }
 
             // Предлагаем посмотреть детали если найден один файл
             if (results.size() == 1) {
@@ -557,6 +622,101 @@ public class FileIndexerApp {
             System.out.println("Error during search: " + e.getMessage());
         }
     }
+    private void exportSnapshot(String file) {
+        try {
+            new SnapshotWriter(databaseManager()).export(Paths.get(file));
+            System.out.println("Снимок индекса записан: " + file);
+        } catch (Exception e) {
+            System.out.println("Ошибка при выгрузке снимка: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Поиск по отображенному в память снимку - без SQLite и без загрузки индекса
+     */
+    private void searchSnapshot(String file, String mode, String query) {
+        long start = System.nanoTime();
+        try (IndexSnapshot snapshot = IndexSnapshot.open(Paths.get(file))) {
+            long opened = System.nanoTime();
+            List<FileIndexEntry> results;
+            if ("--search-content".equals(mode)) {
+                // Снимок поддерживает только top-K поиск; без search.top.k берется search.max.results
+                int topK = AppConfig.getInt("search.top.k", 0);
+                results = snapshot.searchByContentTopK(SearchService.extractQueryTerms(query),
+                        topK > 0 ? topK : AppConfig.getInt("search.max.results", 100));
+            } else if ("--search-name".equals(mode)) {
+                results = snapshot.searchByFileName(query);
+            } else {
+                System.out.println("Unknown snapshot search mode: " + mode);
+                return;
+            }
+            long finished = System.nanoTime();
+
+            if (results.isEmpty()) {
+                System.out.println("По запросу '" + query + "' ничего не найдено.");
+            }
+            for (int i = 0; i < results.size(); i++) {
+                FileIndexEntry entry = results.get(i);
+                System.out.printf("%d. %s\n", i + 1, entry.getFileName());
+                System.out.printf("   Путь: %s\n", entry.getPath());
+                System.out.printf("   Размер: %,d байт, изменен: %s\n", entry.getSize(), entry.getShortLastModified());
+                if (entry.getTotalWords() > 0) {
+                    System.out.printf("   Релевантность: найдено %d совпадений\n", entry.getTotalWords());
+                }
+            }
+            System.out.printf("Снимок: %d файлов, %d слов; открыт за %.1f мс, поиск %.1f мс%n",
+                    snapshot.getFileCount(), snapshot.getTermCount(),
+                    (opened - start) / 1_000_000.0, (finished - opened) / 1_000_000.0);
+        } catch (IOException e) {
+            System.out.println("Ошибка при чтении снимка: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Фильтры командной строки - все аргументы после запроса
+     */
+    private String joinFilters(String[] args) {
+        return args.length > 2 ? String.join(" ", Arrays.copyOfRange(args, 2, args.length)) : "";
+    }
+
+    /**
+     * Разбирает фильтры вида "ext=pdf dir=docs size=1MB-10MB date=week under=/shares/legal/2024"
+     */
+    private SearchOptions applyFilters(SearchOptions options, String filters) {
+        for (String filter : filters.trim().split("\\s+")) {
+            if (filter.isEmpty()) {
+                continue;
+            }
+            int separator = filter.indexOf('=');
+            if (separator <= 0 || separator == filter.length() - 1) {
+                System.out.println("Пропущен фильтр без значения: " + filter);
+                continue;
+            }
+            String key = filter.substring(0, separator).toLowerCase();
+            String value = filter.substring(separator + 1);
+            switch (key) {
+                case SearchFacets.EXTENSION:
+                    options = options.withExtension(value.startsWith(".") ? value.substring(1) : value);
+                    break;
+                case SearchFacets.DIRECTORY:
+                    options = options.withTopDirectory(value);
+                    break;
+                case SearchFacets.SIZE:
+                    options = options.withSizeBucket(value);
+                    break;
+                case SearchFacets.DATE:
+                    options = options.withDateBucket(value);
+                    break;
+                case "under":
+                    options = options.withScope(value);
+                    break;
+                default:
+                    System.out.println("Неизвестный фильтр: " + key);
+            }
+        }
+        return options;
+    }
+
     /**
      * Форматирует размер файла в читаемом виде
      */
@@ -576,7 +736,7 @@ public class FileIndexerApp {
     private void showSomeIndexedFiles() {
         try {
             // Показываем несколько файлов из индекса для примера
-            List<FileIndexEntry> someFiles = searchService.searchByFileNamePartial("");
+            List<FileIndexEntry> someFiles = searchService().searchByFileNamePartial("");
             if (!someFiles.isEmpty()) {
                 System.out.println("\n Примеры файлов в индексе:");
                 for (int i = 0; i < Math.min(someFiles.size(), 5); i++) {
@@ -592,7 +752,7 @@ public class FileIndexerApp {
 
     private void clearIndex() {
         try {
-            databaseManager.clearIndex();
+            databaseManager().clearIndex();
             System.out.println("Индекс очищен.");
         } catch (SQLException e) {
             System.out.println("Ошибка очистки индекса: " + e.getMessage());
@@ -603,7 +763,8 @@ public class FileIndexerApp {
             System.out.println("\n=== Проверка БД ===");
 
             // Проверяем таблицу files
-            String filesSQL = "SELECT id, file_name, file_path FROM files LIMIT 5";
+            String filesSQL = "SELECT id, dir_id, file_name FROM files LIMIT 5";
+            DirectoryTable directories = databaseManager().getDirectories();
             try (Connection conn = ConnectSQLLite.getInstance().getConnection();
                  Statement stmt = conn.createStatement();
                  ResultSet rs = stmt.executeQuery(filesSQL)) {
@@ -615,7 +776,7 @@ public class FileIndexerApp {
                     System.out.printf("%d | %s | %s\n",
                             rs.getInt("id"),
                             rs.getString("file_name"),
-                            rs.getString("file_path"));
+                            directories.filePath(rs.getInt("dir_id"), rs.getString("file_name")));
                 }
             }
 
@@ -649,7 +810,7 @@ public class FileIndexerApp {
 
     private void showStatistics() {
         try {
-            long fileCount = databaseManager.getIndexedFilesCount();
+            long fileCount = databaseManager().getIndexedFilesCount();
             System.out.println("\n=== Статистика ===");
             System.out.println("Проиндексированные файлы: " + fileCount);
 
@@ -658,6 +819,7 @@ public class FileIndexerApp {
                 System.out.println("Файл бд: file_indexer.db");
                 System.out.println("Последнее обновление: " + new java.util.Date());
             }
+            System.out.println(searchService().getCacheStats());
 
         } catch (SQLException e) {
             System.out.println("Ошибка в получении  статистики: " + e.getMessage());
@@ -688,19 +850,17 @@ public class FileIndexerApp {
             FileIndexEntry entry = entries.get(i);
             System.out.println((i + 1) + ". " + entry.getFileName());
             System.out.println("   ID: " + entry.getId());
-            System.out.println("   WordCounts is null: " + (entry.getWordCounts() == null));
+            System.out.println("   WordCounts is null: " + (entry.getTerms() == null));
 
-            if (entry.getWordCounts() != null) {
-                System.out.println("   Размер WordCounts: " + entry.getWordCounts().size());
+            if (entry.getTerms() != null) {
+                System.out.println("   Размер WordCounts: " + entry.getUniqueWords());
                 System.out.println("   Всего слов: " + entry.getTotalWords());
                 System.out.println("   Уникальных слов: " + entry.getUniqueWords());
 
                 // Покажем несколько слов
                 if (entry.getTotalWords() > 0) {
                     System.out.println("   Примеры слов:");
-                    entry.getWordCounts().entrySet().stream()
-                            .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
-                            .limit(3)
+                    entry.getTopWords(3)
                             .forEach(e -> System.out.println("     - " + e.getKey() + " (" + e.getValue() + ")"));
                 }
             } else {
@@ -733,13 +893,8 @@ public class FileIndexerApp {
             // Обрабатываем файл
             FileWalker fileWalker = new FileWalker(java.util.Arrays.asList("docx", "pdf", "txt"));
 
-            if (path.getFileName().toString().toLowerCase().endsWith(".docx")) {
-                fileWalker.processDocxFile(path, testEntry);
-            } else if (path.getFileName().toString().toLowerCase().endsWith(".pdf")) {
-                fileWalker.processPdfFile(path, testEntry);
-            } else {
-                fileWalker.processFileContent(path, testEntry);
-            }
+            System.out.println(" Формат по содержимому: " + ExtractorRegistry.createDefault().sniff(path));
+            fileWalker.processFileContent(path, testEntry);
 
             System.out.println("Результат обработки:");
             System.out.println("   Слов найдено: " + testEntry.getTotalWords());
@@ -747,8 +902,7 @@ public class FileIndexerApp {
 
             if (testEntry.getTotalWords() > 0) {
                 System.out.println("   Примеры слов:");
-                testEntry.getWordCounts().entrySet().stream()
-                        .limit(10)
+                testEntry.getTopWords(10)
                         .forEach(entry -> System.out.println("     - " + entry.getKey() + " (" + entry.getValue() + ")"));
             }
 
@@ -0,0 +1,55 @@
+package ru.gildina.indexer.database;
+
+import java.util.Arrays;
+
+/**
+ * Статистика слов пакета, накопленная по ID словаря: массивы индексируются самим ID,
+ * поэтому term_stats обновляется одной строкой на слово, а не на каждую пару слово-файл.
+ * Массивы переиспользуются между пакетами, сбрасываются только затронутые ячейки.
+ */
+class BatchTermStats {
+    private int[] docFreqs = new int[1024];
+    private int[] maxCounts = new int[1024];
+    private int[] touched = new int[256];
+    private int touchedCount;
+
+    void add(int termId, int count) {
+        if (termId >= docFreqs.length) {
+            int capacity = Math.max(termId + 1, docFreqs.length * 2);
+            docFreqs = Arrays.copyOf(docFreqs, capacity);
+            maxCounts = Arrays.copyOf(maxCounts, capacity);
+        }
+        if (docFreqs[termId] == 0) {
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, touchedCount * 2);
+            }
+            touched[touchedCount++] = termId;
+        }
+        docFreqs[termId]++;
+        maxCounts[termId] = Math.max(maxCounts[termId], count);
+    }
+
+    int size() {
+        return touchedCount;
+    }
+
+    int termIdAt(int index) {
+        return touched[index];
+    }
+
+    int docFreq(int termId) {
+        return docFreqs[termId];
+    }
+
+    int maxCount(int termId) {
+        return maxCounts[termId];
+    }
+
+    void reset() {
+        for (int i = 0; i < touchedCount; i++) {
+            docFreqs[touched[i]] = 0;
+            maxCounts[touched[i]] = 0;
+        }
+        touchedCount = 0;
+    }
+}
@@ -0,0 +1,59 @@
+package ru.gildina.indexer.database;
+
+/**
+ * Курсор по частому слову, хранимому множеством ID файлов (таблица frequent_terms).
+ * Количество вхождений для таких слов не хранится - каждое совпадение весит 1.
+ */
+public class BitmapPostingCursor implements PostingCursor {
+    private final FileIdSet fileIds;
+    private long current;
+
+    BitmapPostingCursor(FileIdSet fileIds) {
+        this.fileIds = fileIds;
+        this.current = toDocId(fileIds.nextId(0));
+    }
+
+    @Override
+    public long docId() {
+        return current;
+    }
+
+    @Override
+    public int count() {
+        return 1;
+    }
+
+    @Override
+    public int maxCount() {
+        return 1;
+    }
+
+    @Override
+    public long next() {
+        if (current != NO_MORE_DOCS) {
+            current = current >= Integer.MAX_VALUE ? NO_MORE_DOCS : toDocId(fileIds.nextId((int) current + 1));
+        }
+        return current;
+    }
+
+    @Override
+    public long advance(long target) {
+        if (current < target) {
+            current = target > Integer.MAX_VALUE ? NO_MORE_DOCS : toDocId(fileIds.nextId((int) target));
+        }
+        return current;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static long toDocId(int id) {
+        return id < 0 ? NO_MORE_DOCS : id;
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapPostingCursor{files=" + fileIds.cardinality() + ", doc=" + current + '}';
+    }
+}
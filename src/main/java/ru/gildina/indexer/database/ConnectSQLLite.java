@@ -1,6 +1,7 @@
 package ru.gildina.indexer.database;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
@@ -28,16 +29,33 @@ public class ConnectSQLLite {
         return connection;
     }
 
-    private void initializeDatabase() {
-        // SQL для создания таблиц
-        String createFilesTableSQL = """
-                    CREATE TABLE IF NOT EXISTS files (
-                        id INTEGER PRIMARY KEY, 
-                        file_path TEXT NOT NULL UNIQUE,
+    // Путь файла не хранится: он складывается из каталога dir_id (таблица directories) и имени
+    static final String CREATE_FILES_TABLE_SQL = """
+                    CREATE TABLE IF NOT EXISTS %s (
+                        id INTEGER PRIMARY KEY,
+                        dir_id INTEGER NOT NULL,
                         file_name TEXT NOT NULL,
                         file_size INTEGER NOT NULL,
                         last_modified INTEGER NOT NULL,
-                        extension TEXT NOT NULL
+                        extension TEXT NOT NULL,
+                        UNIQUE (dir_id, file_name)
+                    );
+                """;
+
+    private void initializeDatabase() {
+        // SQL для создания таблиц
+        String createFilesTableSQL = CREATE_FILES_TABLE_SQL.formatted("files");
+
+        // Каталоги файлов: родитель и имя последнего компонента пути (parent_id = 0 - корень);
+        // pre_order/post_order - нумерация обхода в глубину для поиска в поддереве
+        String createDirectoriesTableSQL = """
+                    CREATE TABLE IF NOT EXISTS directories (
+                        id INTEGER PRIMARY KEY,
+                        parent_id INTEGER NOT NULL,
+                        name TEXT NOT NULL,
+                        pre_order INTEGER,
+                        post_order INTEGER,
+                        UNIQUE (parent_id, name)
                     );
                 """;
 
@@ -47,24 +65,107 @@ public class ConnectSQLLite {
                         file_id INTEGER NOT NULL,
                         word TEXT NOT NULL,
                         word_count INTEGER NOT NULL,
+                        first_block INTEGER,
                         FOREIGN KEY (file_id) REFERENCES files (id) ON DELETE CASCADE
                     );
                 """;
 
-        // Создаем индексы для ускорения поиска
-        String createIndexesSQL = """
-                    CREATE INDEX IF NOT EXISTS idx_files_path ON files(file_path);
-                    CREATE INDEX IF NOT EXISTS idx_contents_word ON file_contents(word);
-                    CREATE INDEX IF NOT EXISTS idx_contents_file ON file_contents(file_id);
+        // Триграммный индекс по нормализованным имени (field = 0) и пути (field = 1) файла
+        String createTrigramsTableSQL = """
+                    CREATE TABLE IF NOT EXISTS file_trigrams (
+                        field INTEGER NOT NULL,
+                        trigram TEXT NOT NULL,
+                        file_id INTEGER NOT NULL,
+                        PRIMARY KEY (field, trigram, file_id)
+                    ) WITHOUT ROWID;
+                """;
+
+        // Сжатый нормализованный текст файлов блоками для сниппетов
+        String createTextBlocksTableSQL = """
+                    CREATE TABLE IF NOT EXISTS file_text_blocks (
+                        file_id INTEGER NOT NULL,
+                        block_no INTEGER NOT NULL,
+                        data BLOB NOT NULL,
+                        PRIMARY KEY (file_id, block_no)
+                    ) WITHOUT ROWID;
+                """;
+
+        // Статистика слов для top-K поиска: в скольких файлах встречается и максимум вхождений в файл
+        String createTermStatsTableSQL = """
+                    CREATE TABLE IF NOT EXISTS term_stats (
+                        word TEXT PRIMARY KEY,
+                        doc_freq INTEGER NOT NULL,
+                        max_count INTEGER NOT NULL
+                    ) WITHOUT ROWID;
                 """;
 
+        // Фильтры Блума по словарю каждого записанного пакета (сегмента) - для быстрых отказов по отсутствующим словам
+        String createTermBloomTableSQL = """
+                    CREATE TABLE IF NOT EXISTS term_bloom_segments (
+                        id INTEGER PRIMARY KEY,
+                        term_count INTEGER NOT NULL,
+                        data BLOB NOT NULL
+                    );
+                """;
+
+        // Частые слова (есть в большой доле файлов) - множество ID файлов вместо строк file_contents
+        String createFrequentTermsTableSQL = """
+                    CREATE TABLE IF NOT EXISTS frequent_terms (
+                        word TEXT PRIMARY KEY,
+                        doc_freq INTEGER NOT NULL,
+                        bitmap BLOB NOT NULL,
+                        format INTEGER NOT NULL DEFAULT 0
+                    ) WITHOUT ROWID;
+                """;
+
+        // Файлы, на которых извлечение текста превысило срок или объем, - пропускаются, пока не изменятся
+        String createQuarantineTableSQL = """
+                    CREATE TABLE IF NOT EXISTS quarantine (
+                        path TEXT PRIMARY KEY,
+                        file_size INTEGER NOT NULL,
+                        last_modified INTEGER NOT NULL,
+                        reason TEXT NOT NULL,
+                        quarantined_at INTEGER NOT NULL
+                    ) WITHOUT ROWID;
+                """;
+
+        // Создаем индексы для ускорения поиска
+        // sqlite-jdbc выполняет только первый оператор из строки, поэтому каждый индекс отдельно
+        String[] createIndexesSQL = {
+                // Индекс по одному word дублировал начало idx_contents_word_file
+                "DROP INDEX IF EXISTS idx_contents_word",
+                "CREATE INDEX IF NOT EXISTS idx_contents_file ON file_contents(file_id)",
+                "CREATE INDEX IF NOT EXISTS idx_trigrams_file ON file_trigrams(file_id)",
+                // Ограничение поиска поддеревом каталога - диапазон pre_order
+                "CREATE INDEX IF NOT EXISTS idx_directories_pre ON directories(pre_order)",
+                // Покрывающий индекс для курсоров постингов top-K поиска
+                "CREATE INDEX IF NOT EXISTS idx_contents_word_file ON file_contents(word, file_id, word_count)",
+                // Top-K по одному слову читается сразу в порядке убывания вхождений
+                "CREATE INDEX IF NOT EXISTS idx_contents_word_count ON file_contents(word, word_count, file_id)"
+        };
+
         try (Connection conn = DriverManager.getConnection(DB_URL);
              Statement stmt = conn.createStatement()) {
 
             // Выполняем SQL для создания таблиц
             stmt.execute(createFilesTableSQL);
+            stmt.execute(createDirectoriesTableSQL);
             stmt.execute(createFileContentsTableSQL);
-            stmt.execute(createIndexesSQL);
+            stmt.execute(createTrigramsTableSQL);
+            stmt.execute(createTermStatsTableSQL);
+            stmt.execute(createTextBlocksTableSQL);
+            stmt.execute(createTermBloomTableSQL);
+            stmt.execute(createFrequentTermsTableSQL);
+            stmt.execute(createQuarantineTableSQL);
+            // Колонки, добавленные после первой версии схемы
+            addColumnIfMissing(conn, "file_contents", "first_block", "INTEGER");
+            addColumnIfMissing(conn, "directories", "pre_order", "INTEGER");
+            addColumnIfMissing(conn, "directories", "post_order", "INTEGER");
+            // 0 - битовая карта от нуля, 1 - компактное множество ID (FileIdSet)
+            addColumnIfMissing(conn, "frequent_terms", "format", "INTEGER NOT NULL DEFAULT 0");
+            for (String createIndexSQL : createIndexesSQL) {
+                stmt.execute(createIndexSQL);
+            }
 
             System.out.println("База данных инициализирована успешно.");
 
@@ -72,5 +173,22 @@ public class ConnectSQLLite {
             System.err.println("Ошибка при инициализации базы данных: " + e.getMessage());
         }
     }
-}
 
+    /**
+     * Добавляет колонку в таблицу, созданную старой версией схемы
+     */
+    private void addColumnIfMissing(Connection conn, String table, String column, String definition)
+            throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return;
+                }
+            }
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+    }
+}
@@ -3,40 +3,73 @@ package ru.gildina.indexer.database;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.gildina.indexer.model.FileIndexEntry;
+import ru.gildina.indexer.model.PostingBuffer;
+import ru.gildina.indexer.model.PostingStream;
+import ru.gildina.indexer.model.Quarantine;
+import ru.gildina.indexer.model.TermCounter;
+import ru.gildina.indexer.model.TermDictionary;
+import ru.gildina.indexer.util.AppConfig;
+import ru.gildina.indexer.util.BloomFilter;
+import ru.gildina.indexer.util.TrigramUtils;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
 
 public class DatabaseManager {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseManager.class);
+    private static final int TRIGRAM_FIELD_NAME = 0;
+    private static final int TRIGRAM_FIELD_PATH = 1;
+    private static final double BLOOM_FALSE_POSITIVE_RATE = AppConfig.getDouble("search.bloom.fpp", 0.01);
+    private static final int BLOOM_MAX_SEGMENTS = AppConfig.getInt("search.bloom.max.segments", 16);
+    private static final String INSERT_TRIGRAM_SQL =
+            "INSERT OR IGNORE INTO file_trigrams (field, trigram, file_id) VALUES (?, ?, ?)";
+
     private final ConnectSQLLite connectionManager;
+    // Поколение индекса: увеличивается после каждой зафиксированной записи
+    private final AtomicLong indexGeneration = new AtomicLong();
+    // Статистика слов текущего пакета по ID словаря
+    private final BatchTermStats batchTermStats = new BatchTermStats();
+    // Дерево каталогов: пути файлов собираются из него по dir_id
+    private final DirectoryTable directories = new DirectoryTable();
+    // Частые слова для чтения; перечитываются только при смене поколения индекса
+    private NavigableMap<String, FileIdSet> frequentTerms;
+    private long frequentTermsGeneration = -1;
 
     public DatabaseManager() {
         this.connectionManager = ConnectSQLLite.getInstance();
+        loadDirectories();
+        migrateFilePaths();
+        saveDirectoryNumbering();
+        ensureTrigramIndex();
+        ensureTermStats();
+        ensureTermBloomFilter();
     }
     public List<FileIndexEntry> searchByPartialPath(String partialPath) throws SQLException {
+        return searchByPartialPath(partialPath, null);
+    }
+
+    /**
+     * Поиск по части пути внутри поддерева каталога scope (null - везде); поддерево отбирается в SQL
+     */
+    public List<FileIndexEntry> searchByPartialPath(String partialPath, String scope) throws SQLException {
         // Нормализуем путь для поиска
         String normalizedPath = partialPath.replace('\\', '/');
 
-        String sql = "SELECT * FROM files WHERE file_path LIKE ? OR file_name LIKE ?";
-        List<FileIndexEntry> results = new ArrayList<>();
-
-        try (Connection conn = connectionManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            String searchPattern = "%" + normalizedPath + "%";
-            pstmt.setString(1, searchPattern);
-            pstmt.setString(2, "%" + normalizedPath + "%");
-            ResultSet rs = pstmt.executeQuery();
-
-            while (rs.next()) {
-                FileIndexEntry entry = resultSetToFileEntry(rs);
-                results.add(entry);
-            }
-        }
+        // Имя файла - суффикс пути, поэтому совпадение по имени покрывается поиском по пути
+        List<FileIndexEntry> results = searchByTrigrams(normalizedPath, TRIGRAM_FIELD_PATH, scope);
 
         System.out.println("Найдено " + results.size() + " файлов по пути: " + normalizedPath);
         return results;
@@ -54,6 +87,28 @@ public class DatabaseManager {
         saveFileEntriesBatch(singleEntryList);
     }
     public void saveFileEntriesBatch(List<FileIndexEntry> entries) throws SQLException {
+        // У записей могут быть разные словари - слова пакета переводятся в общий
+        TermDictionary dictionary = new TermDictionary();
+        try (PostingBuffer postings = new PostingBuffer()) {
+            for (int i = 0; i < entries.size(); i++) {
+                TermCounter terms = entries.get(i).getTerms();
+                TermCounter batchTerms = new TermCounter(dictionary, FileIndexEntry.MAX_UNIQUE_WORDS);
+                terms.forEach((termId, count, firstBlock) ->
+                        batchTerms.add(terms.getDictionary().term(termId), count, firstBlock));
+                postings.append(i, batchTerms);
+            }
+            saveFileEntriesBatch(entries, dictionary, postings.cursor(), new BitSet());
+        }
+    }
+
+    /**
+     * Пакетное сохранение, когда слова файлов уже перенесены в буфер записи или в прогоны SPIMI
+     * (номер файла в записи - индекс в списке entries, ID слова - из dictionary). Слова из frequentTermIds и слова,
+     * уже отмеченные частыми, пишутся не в file_contents, а в битовые карты frequent_terms
+     */
+    public synchronized void saveFileEntriesBatch(List<FileIndexEntry> entries, TermDictionary dictionary,
+                                                  PostingStream postings, BitSet frequentTermIds)
+            throws SQLException {
         if (entries.isEmpty()) {
             System.out.println("Нет файлов для сохранения");
             return;
@@ -63,13 +118,37 @@ public class DatabaseManager {
 
 
         String insertFileSQL = """
-        INSERT OR REPLACE INTO files (file_path, file_name, file_size, last_modified, extension) 
+        INSERT OR REPLACE INTO files (dir_id, file_name, file_size, last_modified, extension) 
         VALUES (?, ?, ?, ?, ?)
     """;
 
         String insertContentSQL = """
-        INSERT INTO file_contents (file_id, word, word_count) 
-        VALUES (?, ?, ?)
+        INSERT INTO file_contents (file_id, word, word_count, first_block) 
+        VALUES (?, ?, ?, ?)
+    """;
+
+        String insertTextBlockSQL = "INSERT INTO file_text_blocks (file_id, block_no, data) VALUES (?, ?, ?)";
+
+        String selectOldIdSQL = "SELECT id FROM files WHERE dir_id = ? AND file_name = ?";
+        String deleteOldTrigramsSQL =
+                "DELETE FROM file_trigrams WHERE file_id IN (SELECT id FROM files WHERE dir_id = ? AND file_name = ?)";
+        // Слова старой записи перестают встречаться в этом файле - doc_freq уменьшается до удаления строк
+        String decrementOldStatsSQL = """
+        UPDATE term_stats SET doc_freq = doc_freq - 1
+        WHERE word IN (SELECT word FROM file_contents
+                       WHERE file_id IN (SELECT id FROM files WHERE dir_id = ? AND file_name = ?))
+    """;
+        String deleteOldContentsSQL =
+                "DELETE FROM file_contents WHERE file_id IN (SELECT id FROM files WHERE dir_id = ? AND file_name = ?)";
+        String deleteOldTextBlocksSQL =
+                "DELETE FROM file_text_blocks WHERE file_id IN (SELECT id FROM files WHERE dir_id = ? AND file_name = ?)";
+
+        // max_count только растет, поэтому всегда остается верхней границей для top-K поиска
+        String upsertTermStatsSQL = """
+        INSERT INTO term_stats (word, doc_freq, max_count) VALUES (?, ?, ?)
+        ON CONFLICT(word) DO UPDATE SET
+            doc_freq = doc_freq + excluded.doc_freq,
+            max_count = MAX(max_count, excluded.max_count)
     """;
 
         Connection conn = null;
@@ -84,17 +163,15 @@ public class DatabaseManager {
                 System.out.println((i + 1) + ". " + entry.getFileName());
                 System.out.println("   Путь: " + entry.getPath());
                 System.out.println("   Размер: " + entry.getSize() + " байт");
-                System.out.println("    WordCounts: " + (entry.getWordCounts() == null ? "NULL " : "OK "));
+                System.out.println("    WordCounts: " + (entry.getTerms() == null ? "NULL " : "OK "));
 
-                if (entry.getWordCounts() != null) {
+                if (entry.getTerms() != null) {
                     System.out.println("   Слов всего: " + entry.getTotalWords());
                     System.out.println("    Уникальных слов: " + entry.getUniqueWords());
 
                     if (entry.getTotalWords() > 0) {
                         System.out.println("    Примеры слов:");
-                        entry.getWordCounts().entrySet().stream()
-                                .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
-                                .limit(3)
+                        entry.getTopWords(3)
                                 .forEach(e -> System.out.println("     - " + e.getKey() + " (" + e.getValue() + ")"));
                     }
                 } else {
@@ -106,11 +183,38 @@ public class DatabaseManager {
             // Шаг 2: Сохраняем файлы по одному, чтобы точно получить ID
             System.out.println("СОХРАНЕНИЕ ИНФОРМАЦИИ О ФАЙЛАХ:");
             List<Long> fileIds = new ArrayList<>();
-
-            try (PreparedStatement fileStmt = conn.prepareStatement(insertFileSQL, Statement.RETURN_GENERATED_KEYS)) {
+            BitSet replacedIds = new BitSet();
+
+            try (PreparedStatement fileStmt = conn.prepareStatement(insertFileSQL, Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement oldIdStmt = conn.prepareStatement(selectOldIdSQL);
+                 PreparedStatement decrementStatsStmt = conn.prepareStatement(decrementOldStatsSQL);
+                 PreparedStatement deleteTrigramsStmt = conn.prepareStatement(deleteOldTrigramsSQL);
+                 PreparedStatement deleteContentsStmt = conn.prepareStatement(deleteOldContentsSQL);
+                 PreparedStatement deleteTextBlocksStmt = conn.prepareStatement(deleteOldTextBlocksSQL);
+                 PreparedStatement trigramStmt = conn.prepareStatement(INSERT_TRIGRAM_SQL)) {
                 for (FileIndexEntry entry : entries) {
-                    fileStmt.setString(1, entry.getPath());
-                    fileStmt.setString(2, entry.getFileName());
+                    String path = normalizePath(entry.getPath());
+                    String directory = directoryOf(path);
+                    int dirId = directory == null ? DirectoryTable.NO_DIRECTORY : directories.resolve(conn, directory);
+                    String name = nameOf(path);
+
+                    // INSERT OR REPLACE выдаст файлу новый ID, слова и триграммы старой записи больше не нужны
+                    oldIdStmt.setInt(1, dirId);
+                    oldIdStmt.setString(2, name);
+                    try (ResultSet rs = oldIdStmt.executeQuery()) {
+                        while (rs.next()) {
+                            replacedIds.set(Math.toIntExact(rs.getLong(1)));
+                        }
+                    }
+                    for (PreparedStatement deleteStmt : List.of(decrementStatsStmt, deleteTrigramsStmt,
+                            deleteContentsStmt, deleteTextBlocksStmt)) {
+                        deleteStmt.setInt(1, dirId);
+                        deleteStmt.setString(2, name);
+                        deleteStmt.executeUpdate();
+                    }
+
+                    fileStmt.setInt(1, dirId);
+                    fileStmt.setString(2, name);
                     fileStmt.setLong(3, entry.getSize());
                     fileStmt.setLong(4, entry.getLastModifiedTime());
                     fileStmt.setString(5, entry.getExtension());
@@ -124,6 +228,7 @@ public class DatabaseManager {
                             long fileId = rs.getLong(1);
                             fileIds.add(fileId);
                             entry.setId(fileId);
+                            addTrigrams(trigramStmt, fileId, name, path);
                             System.out.println("    Присвоен ID: " + fileId);
                         } else {
                             System.out.println("   Не удалось получить ID для: " + entry.getFileName());
@@ -133,68 +238,87 @@ public class DatabaseManager {
                 }
             }
 
-            // Шаг 3: Сохраняем слова для файлов, у которых они есть
+            // Шаг 3: Сохраняем сжатый текст и слова
             System.out.println("СОХРАНЕНИЕ СЛОВ:");
-            int totalWordsSaved = 0;
-            int filesWithWords = 0;
+            long totalWordsSaved = 0;
+            int filesWithWords;
 
-            try (PreparedStatement contentStmt = conn.prepareStatement(insertContentSQL)) {
+            try (PreparedStatement contentStmt = conn.prepareStatement(insertContentSQL);
+                 PreparedStatement statsStmt = conn.prepareStatement(upsertTermStatsSQL);
+                 PreparedStatement textBlockStmt = conn.prepareStatement(insertTextBlockSQL)) {
                 for (int i = 0; i < entries.size(); i++) {
                     FileIndexEntry entry = entries.get(i);
-                    Long fileId = fileIds.get(i);
-
-                    if (fileId == null) {
+                    if (fileIds.get(i) == null) {
                         System.out.println("   Пропускаем " + entry.getFileName() + " - нет ID");
                         continue;
                     }
+                    saveTextBlocks(textBlockStmt, fileIds.get(i), entry);
+                }
 
-                    if (entry.getWordCounts() == null || entry.getWordCounts().isEmpty()) {
-                        System.out.println("    Пропускаем " + entry.getFileName() + " - нет слов");
+                // Слова пакета читаются потоком: номер файла в пакете -> ID файла
+                BitSet frequent = loadFrequentTermIds(conn, dictionary, frequentTermIds);
+                Map<Integer, BitSet> frequentFiles = new HashMap<>();
+                BitSet withWords = new BitSet(entries.size());
+                while (postings.next()) {
+                    Long fileId = fileIds.get(postings.entryOrdinal());
+                    if (fileId == null) {
                         continue;
                     }
+                    withWords.set(postings.entryOrdinal());
 
-                    System.out.println("    Сохраняем слова для: " + entry.getFileName() + " (ID: " + fileId + ")");
-                    System.out.println("      Количество слов: " + entry.getWordCounts().size());
-
-                    // Удаляем старые записи
-                    try (PreparedStatement deleteStmt = conn.prepareStatement("DELETE FROM file_contents WHERE file_id = ?")) {
-                        deleteStmt.setLong(1, fileId);
-                        int deleted = deleteStmt.executeUpdate();
-                        System.out.println("       Удалено старых записей: " + deleted);
+                    if (frequent.get(postings.termId())) {
+                        frequentFiles.computeIfAbsent(postings.termId(), id -> new BitSet())
+                                .set(Math.toIntExact(fileId));
+                        batchTermStats.add(postings.termId(), postings.count());
+                        continue;
                     }
-
-                    // Сохраняем новые слова
-                    int wordCountForFile = 0;
-                    for (Map.Entry<String, Integer> wordEntry : entry.getWordCounts().entrySet()) {
-                        contentStmt.setLong(1, fileId);
-                        contentStmt.setString(2, wordEntry.getKey());
-                        contentStmt.setInt(3, wordEntry.getValue());
-                        contentStmt.addBatch();
-                        wordCountForFile++;
-                        totalWordsSaved++;
-
-                        // Выполняем batch каждые 500 слов
-                        if (totalWordsSaved % 500 == 0) {
-                            contentStmt.executeBatch();
-                            System.out.println("      Сохранено " + totalWordsSaved + " слов...");
-                        }
+                    contentStmt.setLong(1, fileId);
+                    contentStmt.setString(2, dictionary.term(postings.termId()));
+                    contentStmt.setInt(3, postings.count());
+                    if (postings.firstBlock() >= 0) {
+                        contentStmt.setInt(4, postings.firstBlock());
+                    } else {
+                        contentStmt.setNull(4, Types.INTEGER);
                     }
+                    contentStmt.addBatch();
+                    batchTermStats.add(postings.termId(), postings.count());
+                    totalWordsSaved++;
 
-                    // Выполняем batch для этого файла
-                    int[] results = contentStmt.executeBatch();
-                    filesWithWords++;
-                    System.out.println("      Сохранено слов для файла: " + results.length);
-
-                    // Покажем несколько сохраненных слов для проверки
-                    System.out.println("      Примеры сохраненных слов:");
-                    entry.getWordCounts().entrySet().stream()
-                            .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
-                            .limit(3)
-                            .forEach(e -> System.out.println("        - " + e.getKey() + " (" + e.getValue() + ")"));
+                    // Выполняем batch каждые 500 слов
+                    if (totalWordsSaved % 500 == 0) {
+                        contentStmt.executeBatch();
+                    }
+                    if (totalWordsSaved % 50000 == 0) {
+                        System.out.println("      Сохранено " + totalWordsSaved + " слов...");
+                    }
                 }
+                contentStmt.executeBatch();
+                filesWithWords = withWords.cardinality();
+
+                // Одна строка term_stats на слово пакета
+                for (int i = 0; i < batchTermStats.size(); i++) {
+                    int termId = batchTermStats.termIdAt(i);
+                    statsStmt.setString(1, dictionary.term(termId));
+                    statsStmt.setInt(2, batchTermStats.docFreq(termId));
+                    statsStmt.setInt(3, batchTermStats.maxCount(termId));
+                    statsStmt.addBatch();
+                }
+                statsStmt.executeBatch();
+                System.out.println("Обновлена статистика слов: " + batchTermStats.size());
+
+                saveFrequentTerms(conn, dictionary, frequentFiles, replacedIds);
+            }
+            // Слова, которых не осталось ни в одном файле
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("DELETE FROM term_stats WHERE doc_freq <= 0");
             }
 
+            saveTermBloomSegment(conn, dictionary, batchTermStats);
+            // Новые каталоги меняют нумерацию обхода, по которой поиск ограничивается поддеревом
+            directories.saveNumbering(conn);
+
             conn.commit();
+            indexGeneration.incrementAndGet();
 
 
             System.out.println("ПАКЕТНОЕ СОХРАНЕНИЕ ЗАВЕРШЕНО!");
@@ -208,17 +332,20 @@ public class DatabaseManager {
                 FileIndexEntry entry = entries.get(i);
                 System.out.println((i + 1) + ". " + entry.getFileName() +
                         " - ID: " + entry.getId() +
-                        ", слов: " + (entry.getWordCounts() != null ? entry.getTotalWords() : "NULL"));
+                        ", слов: " + (entry.getTerms() != null ? entry.getTotalWords() : "NULL"));
             }
 
         } catch (SQLException e) {
             if (conn != null) {
                 conn.rollback();
+                // Каталоги, добавленные в откаченной транзакции, не должны остаться в памяти
+                directories.load(conn);
             }
             System.out.println("ОШИБКА при пакетном сохранении: " + e.getMessage());
             e.printStackTrace();
             throw e;
         } finally {
+            batchTermStats.reset();
             if (conn != null) {
                 conn.setAutoCommit(true);
             }
@@ -228,13 +355,18 @@ public class DatabaseManager {
      * Находит файл по точному пути
      */
     public FileIndexEntry findFileByPath(String filePath) throws SQLException {
-        String normalizedPath = filePath.replace('\\', '/');
-        String sql = "SELECT * FROM files WHERE file_path = ?";
+        String normalizedPath = normalizePath(filePath);
+        int dirId = findDirectoryId(normalizedPath);
+        if (dirId < 0) {
+            return null;
+        }
+        String sql = "SELECT * FROM files WHERE dir_id = ? AND file_name = ?";
 
         try (Connection conn = connectionManager.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setString(1, normalizedPath);
+            pstmt.setInt(1, dirId);
+            pstmt.setString(2, nameOf(normalizedPath));
             ResultSet rs = pstmt.executeQuery();
 
             if (rs.next()) {
@@ -250,20 +382,7 @@ public class DatabaseManager {
     }
 
     public List<FileIndexEntry> searchByFileNamePartial(String fileName) throws SQLException {
-        String sql = "SELECT * FROM files WHERE file_name LIKE ?";
-        List<FileIndexEntry> results = new ArrayList<>();
-
-        try (Connection conn = connectionManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, "%" + fileName + "%");
-            ResultSet rs = pstmt.executeQuery();
-
-            while (rs.next()) {
-                FileIndexEntry entry = resultSetToFileEntry(rs);
-                results.add(entry);
-            }
-        }
+        List<FileIndexEntry> results = searchByTrigrams(fileName, TRIGRAM_FIELD_NAME, null);
 
         System.out.println("Найдено " + results.size() + " файлов по имени: " + fileName);
         return results;
@@ -284,48 +403,46 @@ public class DatabaseManager {
             pstmt.setLong(1, entry.getId());
             ResultSet rs = pstmt.executeQuery();
 
-            Map<String, Integer> wordCounts = new HashMap<>();
+            // Слова загружаются заново, а не добавляются к уже загруженным
+            entry.resetContent();
             while (rs.next()) {
-                String word = rs.getString("word");
-                int count = rs.getInt("word_count");
-                wordCounts.put(word, count);
+                entry.addWord(rs.getString("word"), rs.getInt("word_count"));
+            }
+            for (Map.Entry<String, FileIdSet> term : cachedFrequentTerms(conn).entrySet()) {
+                if (term.getValue().contains(entry.getId())) {
+                    entry.addWord(term.getKey(), 1);
+                }
             }
-
-            entry.setWordCounts(wordCounts);
         }
 
         System.out.println("Загружено слов для файла " + entry.getFileName() + ": " + entry.getTotalWords());
     }
     public List<FileIndexEntry> searchByFileName(String fileName) throws SQLException {
-        String sql = "SELECT * FROM files WHERE file_name LIKE ?";
-        List<FileIndexEntry> results = new ArrayList<>();
-
-        try (Connection conn = connectionManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, "%" + fileName + "%");
-            ResultSet rs = pstmt.executeQuery();
+        return searchByFileName(fileName, null);
+    }
 
-            while (rs.next()) {
-                FileIndexEntry entry = resultSetToFileEntry(rs);
-                results.add(entry);
-            }
-        }
+    /**
+     * Поиск по имени внутри поддерева каталога scope (null - везде); поддерево отбирается в SQL
+     */
+    public List<FileIndexEntry> searchByFileName(String fileName, String scope) throws SQLException {
+        List<FileIndexEntry> results = searchByTrigrams(fileName, TRIGRAM_FIELD_NAME, scope);
 
         logger.info("Найдено {} файлов по имени: {}", results.size(), fileName);
         return results;
     }
     public List<FileIndexEntry> searchByExactNormalizedPath(String filePath) throws SQLException {
         // Нормализуем путь для точного поиска
-        String normalizedPath = filePath.replace('\\', '/');
+        String normalizedPath = normalizePath(filePath);
 
-        String sql = "SELECT * FROM files WHERE file_path = ?";
+        String sql = "SELECT * FROM files WHERE dir_id = ? AND file_name = ?";
         List<FileIndexEntry> results = new ArrayList<>();
+        int dirId = findDirectoryId(normalizedPath);
 
         try (Connection conn = connectionManager.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setString(1, normalizedPath);
+            pstmt.setInt(1, dirId);
+            pstmt.setString(2, nameOf(normalizedPath));
             ResultSet rs = pstmt.executeQuery();
 
             while (rs.next()) {
@@ -338,47 +455,99 @@ public class DatabaseManager {
         return results;
     }
 
-    public List<FileIndexEntry> searchByContent(String searchWord) throws SQLException {
+    /**
+     * Файлы, в словах которых есть подстрокой хотя бы одно из слов запроса.
+     * Слова запроса должны пройти ту же цепочку анализа, что и текст при индексации
+     */
+    public List<FileIndexEntry> searchByContent(Collection<String> terms) throws SQLException {
+        List<FileIndexEntry> results = new ArrayList<>();
+        if (terms.isEmpty()) {
+            return results;
+        }
         String sql = """
             SELECT f.*, SUM(fc.word_count) as relevance 
             FROM files f 
             JOIN file_contents fc ON f.id = fc.file_id 
-            WHERE fc.word LIKE ? 
+            WHERE %s 
             GROUP BY f.id 
             ORDER BY relevance DESC
-        """;
-
-        List<FileIndexEntry> results = new ArrayList<>();
+        """.formatted(String.join(" OR ", Collections.nCopies(terms.size(), "fc.word LIKE ?")));
 
         try (Connection conn = connectionManager.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            pstmt.setString(1, "%" + searchWord.toLowerCase() + "%");
+            int index = 1;
+            for (String term : terms) {
+                pstmt.setString(index++, "%" + term + "%");
+            }
             ResultSet rs = pstmt.executeQuery();
 
+            Set<Long> found = new HashSet<>();
             while (rs.next()) {
                 FileIndexEntry entry = resultSetToFileEntry(rs);
                 results.add(entry);
+                found.add(entry.getId());
+            }
+
+            // Файлы, где подходят только частые слова, - в конце списка
+            List<Long> frequentOnly = new ArrayList<>();
+            for (Map.Entry<String, FileIdSet> term : cachedFrequentTerms(conn).entrySet()) {
+                if (containsAny(term.getKey(), terms)) {
+                    FileIdSet files = term.getValue();
+                    for (int id = files.nextId(0); id >= 0; id = files.nextId(id + 1)) {
+                        if (found.add((long) id)) {
+                            frequentOnly.add((long) id);
+                        }
+                    }
+                }
             }
+            results.addAll(loadFilesByIds(frequentOnly));
         }
 
-        logger.info("Найдено {} файлов по содержимому: {}", results.size(), searchWord);
+        logger.info("Найдено {} файлов по содержимому: {}", results.size(), terms);
         return results;
     }
 
+    private static boolean containsAny(String word, Collection<String> terms) {
+        for (String term : terms) {
+            if (word.contains(term)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void clearIndex() throws SQLException {
         String deleteContentsSQL = "DELETE FROM file_contents";
+        String deleteTrigramsSQL = "DELETE FROM file_trigrams";
+        String deleteTermStatsSQL = "DELETE FROM term_stats";
+        String deleteTextBlocksSQL = "DELETE FROM file_text_blocks";
         String deleteFilesSQL = "DELETE FROM files";
 
         try (Connection conn = connectionManager.getConnection();
              Statement stmt = conn.createStatement()) {
 
             stmt.execute(deleteContentsSQL);
+            stmt.execute(deleteTrigramsSQL);
+            stmt.execute(deleteTermStatsSQL);
+            stmt.execute(deleteTextBlocksSQL);
+            stmt.execute("DELETE FROM term_bloom_segments");
+            stmt.execute("DELETE FROM frequent_terms");
             stmt.execute(deleteFilesSQL);
+            stmt.execute("DELETE FROM directories");
+            directories.load(conn);
+            indexGeneration.incrementAndGet();
             logger.info("Индекс очищен");
         }
     }
 
+    /**
+     * Текущее поколение индекса для инвалидации кэшей
+     */
+    public long getIndexGeneration() {
+        return indexGeneration.get();
+    }
+
     public long getIndexedFilesCount() throws SQLException {
         String sql = "SELECT COUNT(*) as file_count FROM files";
 
@@ -393,10 +562,911 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Возвращает статистику по каждому из слов. Слов, которых нет в индексе, в результате нет.
+     */
+    public Map<String, TermStats> getTermStats(Collection<String> words) throws SQLException {
+        Map<String, TermStats> result = new HashMap<>();
+        if (words.isEmpty()) {
+            return result;
+        }
+
+        String placeholders = String.join(", ", Collections.nCopies(words.size(), "?"));
+        String sql = "SELECT word, doc_freq, max_count FROM term_stats WHERE word IN (" + placeholders + ")";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            int index = 1;
+            for (String word : words) {
+                pstmt.setString(index++, word);
+            }
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                TermStats stats = new TermStats(rs.getString("word"), rs.getInt("doc_freq"), rs.getInt("max_count"));
+                result.put(stats.getWord(), stats);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает k самых релевантных файлов для набора слов (релевантность - сумма вхождений).
+     * Постинги читаются курсорами по индексу (word, file_id), WAND пропускает файлы,
+     * которые не могут попасть в top-K, не читая их постинги.
+     */
+    public List<FileIndexEntry> searchByContentTopK(Collection<TermStats> terms, int k) throws SQLException {
+        return searchByContentTopK(terms, k, null);
+    }
+
+    /**
+     * Top-K поиск только среди файлов, ID которых проходит фильтр (null - без фильтра)
+     */
+    public List<FileIndexEntry> searchByContentTopK(Collection<TermStats> terms, int k, LongPredicate filter)
+            throws SQLException {
+        if (terms.isEmpty() || k <= 0) {
+            return new ArrayList<>();
+        }
+
+        if (terms.size() == 1 && filter == null) {
+            return searchByWordTopK(terms.iterator().next().getWord(), k);
+        }
+
+        List<WandTopKSearcher.ScoredDoc> topDocs;
+        try (Connection conn = connectionManager.getConnection()) {
+            List<PostingCursor> cursors = new ArrayList<>();
+            try {
+                for (TermStats term : terms) {
+                    FileIdSet frequentFiles = cachedFrequentTerms(conn).get(term.getWord());
+                    cursors.add(frequentFiles != null
+                            ? new BitmapPostingCursor(frequentFiles)
+                            : new SqlPostingCursor(conn, term.getWord(), term.getMaxCount()));
+                }
+                topDocs = new WandTopKSearcher(k, filter).search(cursors);
+            } finally {
+                for (PostingCursor cursor : cursors) {
+                    cursor.close();
+                }
+            }
+        }
+
+        List<Long> ids = new ArrayList<>();
+        for (WandTopKSearcher.ScoredDoc doc : topDocs) {
+            ids.add(doc.getDocId());
+        }
+        List<FileIndexEntry> results = loadFilesByIds(ids);
+
+        logger.info("Top-{}: найдено {} файлов по словам {}", k, results.size(), terms);
+        return results;
+    }
+
+    /**
+     * ID всех файлов, где есть хотя бы одно из слов, - для фасетов и общего числа совпадений top-K поиска.
+     * Релевантность не считается: читаются только ID файлов по индексу (word, file_id)
+     */
+    public BitSet matchingFileIds(Collection<TermStats> terms) throws SQLException {
+        BitSet files = new BitSet();
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT file_id FROM file_contents WHERE word = ?")) {
+            for (TermStats term : terms) {
+                FileIdSet frequentFiles = cachedFrequentTerms(conn).get(term.getWord());
+                if (frequentFiles != null) {
+                    files.or(frequentFiles.toBitSet());
+                    continue;
+                }
+                pstmt.setString(1, term.getWord());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        files.set(rs.getInt(1));
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Top-K по одному слову: индекс (word, word_count, file_id) отдает постинги уже по убыванию
+     */
+    private List<FileIndexEntry> searchByWordTopK(String word, int k) throws SQLException {
+        String sql = """
+            SELECT f.* FROM file_contents fc
+            JOIN files f ON f.id = fc.file_id
+            WHERE fc.word = ?
+            ORDER BY fc.word_count DESC, fc.file_id DESC
+            LIMIT ?
+        """;
+        List<FileIndexEntry> results = new ArrayList<>();
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            // У частого слова все файлы равноценны - берем k последних ID, как и ORDER BY выше
+            FileIdSet frequentFiles = cachedFrequentTerms(conn).get(word);
+            if (frequentFiles != null) {
+                List<Long> ids = new ArrayList<>();
+                for (int id = frequentFiles.lastId(); id >= 0 && ids.size() < k;
+                     id = id == 0 ? -1 : frequentFiles.previousId(id - 1)) {
+                    ids.add((long) id);
+                }
+                results = loadFilesByIds(ids);
+                logger.info("Top-{}: найдено {} файлов по частому слову {}", k, results.size(), word);
+                return results;
+            }
+
+            pstmt.setString(1, word);
+            pstmt.setInt(2, k);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                results.add(resultSetToFileEntry(rs));
+            }
+        }
+
+        logger.info("Top-{}: найдено {} файлов по слову {}", k, results.size(), word);
+        return results;
+    }
+
+    /**
+     * Потоково читает метаданные всех файлов в порядке ID
+     */
+    public void scanFileMetadata(FileMetadataRowHandler handler) throws SQLException {
+        String sql = "SELECT id, dir_id, file_name, file_size, last_modified, extension FROM files ORDER BY id";
+
+        try (Connection conn = connectionManager.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+
+            while (rs.next()) {
+                int dirId = rs.getInt("dir_id");
+                handler.accept(rs.getLong("id"), dirId, directories.filePath(dirId, rs.getString("file_name")),
+                        rs.getLong("file_size"), rs.getLong("last_modified"), rs.getString("extension"));
+            }
+        }
+    }
+
+    /**
+     * Потоково читает все записи слово-файл в порядке (слово, ID файла) - по покрывающему индексу.
+     * Частые слова из битовых карт вставляются в поток на свое место с количеством 1
+     */
+    public void scanPostingsByWord(PostingRowHandler handler) throws SQLException {
+        String sql = "SELECT word, file_id, word_count FROM file_contents ORDER BY word, file_id";
+
+        try (Connection conn = connectionManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+
+            // Слова из букв и цифр: порядок String совпадает с побайтовым порядком SQLite
+            TreeMap<String, FileIdSet> frequent = new TreeMap<>(cachedFrequentTerms(conn));
+            try (ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    String word = rs.getString(1);
+                    emitFrequentTerms(frequent.headMap(word), handler);
+                    handler.accept(word, rs.getLong(2), rs.getInt(3));
+                }
+            }
+            emitFrequentTerms(frequent, handler);
+        }
+    }
+
+    private static void emitFrequentTerms(Map<String, FileIdSet> terms, PostingRowHandler handler) {
+        Iterator<Map.Entry<String, FileIdSet>> iterator = terms.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, FileIdSet> term = iterator.next();
+            FileIdSet files = term.getValue();
+            for (int id = files.nextId(0); id >= 0; id = files.nextId(id + 1)) {
+                handler.accept(term.getKey(), id, 1);
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Номер самого раннего блока сохраненного текста, где встречается любое из слов, или -1
+     */
+    public int findFirstTextBlock(long fileId, Collection<String> words) throws SQLException {
+        if (words.isEmpty()) {
+            return -1;
+        }
+
+        String placeholders = String.join(", ", Collections.nCopies(words.size(), "?"));
+        String sql = "SELECT MIN(first_block) AS block_no FROM file_contents WHERE file_id = ? AND word IN ("
+                + placeholders + ")";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            int index = 1;
+            pstmt.setLong(index++, fileId);
+            for (String word : words) {
+                pstmt.setString(index++, word);
+            }
+            ResultSet rs = pstmt.executeQuery();
+
+            if (rs.next()) {
+                int block = rs.getInt("block_no");
+                return rs.wasNull() ? -1 : block;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Загружает один сжатый блок сохраненного текста файла или null, если его нет
+     */
+    public byte[] loadTextBlock(long fileId, int blockNo) throws SQLException {
+        String sql = "SELECT data FROM file_text_blocks WHERE file_id = ? AND block_no = ?";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, fileId);
+            pstmt.setInt(2, blockNo);
+            ResultSet rs = pstmt.executeQuery();
+
+            return rs.next() ? rs.getBytes("data") : null;
+        }
+    }
+
+    /**
+     * Загружает файлы по ID, сохраняя порядок переданного списка
+     */
+    public List<FileIndexEntry> loadFilesByIds(List<Long> ids) throws SQLException {
+        List<FileIndexEntry> results = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return results;
+        }
+
+        String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+        String sql = "SELECT * FROM files WHERE id IN (" + placeholders + ")";
+        Map<Long, FileIndexEntry> byId = new HashMap<>();
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            for (int i = 0; i < ids.size(); i++) {
+                pstmt.setLong(i + 1, ids.get(i));
+            }
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                FileIndexEntry entry = resultSetToFileEntry(rs);
+                byId.put(entry.getId(), entry);
+            }
+        }
+
+        for (Long id : ids) {
+            FileIndexEntry entry = byId.get(id);
+            if (entry != null) {
+                results.add(entry);
+            }
+        }
+        return results;
+    }
+
+    private void saveTextBlocks(PreparedStatement textBlockStmt, long fileId, FileIndexEntry entry)
+            throws SQLException {
+        if (entry.getStoredText() == null) {
+            return;
+        }
+
+        List<byte[]> blocks = entry.getStoredText().finish();
+        for (int blockNo = 0; blockNo < blocks.size(); blockNo++) {
+            textBlockStmt.setLong(1, fileId);
+            textBlockStmt.setInt(2, blockNo);
+            textBlockStmt.setBytes(3, blocks.get(blockNo));
+            textBlockStmt.addBatch();
+        }
+        textBlockStmt.executeBatch();
+        logger.debug("Сохранено {} блоков текста ({} байт) для {}",
+                blocks.size(), entry.getStoredText().getCompressedBytes(), entry.getFileName());
+    }
+
+    /**
+     * Поиск подстроки в имени или пути файла без учета регистра.
+     * Триграммный индекс сужает набор кандидатов, затем подстрока проверяется явно.
+     */
+    private List<FileIndexEntry> searchByTrigrams(String query, int field, String scope) throws SQLException {
+        String folded = TrigramUtils.fold(query);
+        Set<String> trigrams = TrigramUtils.trigrams(folded);
+
+        int[] range = null;
+        if (scope != null) {
+            int scopeId = directories.find(normalizePath(scope.trim()));
+            if (scopeId < 0) {
+                return new ArrayList<>();
+            }
+            if (scopeId != DirectoryTable.NO_DIRECTORY) {
+                range = new int[]{directories.preOrder(scopeId), directories.postOrder(scopeId)};
+            }
+        }
+
+        List<FileIndexEntry> candidates = trigrams.isEmpty()
+                ? loadLikeCandidates(field, folded, range) // Запрос короче триграммы - отбор по LIKE в SQLite
+                : loadTrigramCandidates(field, trigrams, range);
+
+        List<FileIndexEntry> results = new ArrayList<>();
+        for (FileIndexEntry candidate : candidates) {
+            String value = field == TRIGRAM_FIELD_NAME ? candidate.getFileName() : candidate.getPath();
+            if (TrigramUtils.fold(value).contains(folded)) {
+                results.add(candidate);
+            }
+        }
+
+        logger.debug("Триграммный поиск '{}': кандидатов {}, совпадений {}",
+                query, candidates.size(), results.size());
+        return results;
+    }
+
+    /**
+     * Соединение с каталогами, ограничивающее файлы диапазоном нумерации поддерева [pre, post];
+     * пустая строка без ограничения
+     */
+    private static String scopeJoin(int[] range) {
+        return range == null ? "" : " JOIN directories d ON d.id = f.dir_id AND d.pre_order BETWEEN ? AND ?";
+    }
+
+    private static int bindScope(PreparedStatement pstmt, int index, int[] range) throws SQLException {
+        if (range == null) {
+            return index;
+        }
+        pstmt.setInt(index++, range[0]);
+        pstmt.setInt(index++, range[1]);
+        return index;
+    }
+
+    private List<FileIndexEntry> loadTrigramCandidates(int field, Set<String> trigrams, int[] range)
+            throws SQLException {
+        List<String> queryTrigrams = new ArrayList<>(trigrams);
+        if (queryTrigrams.size() > TrigramUtils.MAX_QUERY_TRIGRAMS) {
+            queryTrigrams = queryTrigrams.subList(0, TrigramUtils.MAX_QUERY_TRIGRAMS);
+        }
+
+        String placeholders = String.join(", ", Collections.nCopies(queryTrigrams.size(), "?"));
+        String sql = """
+            SELECT f.* FROM files f
+            JOIN (
+                SELECT file_id FROM file_trigrams
+                WHERE field = ? AND trigram IN (%s)
+                GROUP BY file_id
+                HAVING COUNT(*) = ?
+            ) t ON t.file_id = f.id%s
+        """.formatted(placeholders, scopeJoin(range));
+
+        List<FileIndexEntry> results = new ArrayList<>();
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            int index = 1;
+            pstmt.setInt(index++, field);
+            for (String trigram : queryTrigrams) {
+                pstmt.setString(index++, trigram);
+            }
+            pstmt.setInt(index++, queryTrigrams.size());
+            bindScope(pstmt, index, range);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                results.add(resultSetToFileEntry(rs));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Кандидаты для запроса короче триграммы: подстрока ищется LIKE по имени или пути, приведенным
+     * функцией fold (встроенный LIKE не учитывает регистр только для латиницы). Строки отбирает
+     * SQLite, в память попадают только совпадения
+     */
+    private List<FileIndexEntry> loadLikeCandidates(int field, String folded, int[] range) throws SQLException {
+        String sql = "SELECT f.* FROM files f" + scopeJoin(range) + (field == TRIGRAM_FIELD_NAME
+                ? " WHERE fold(f.file_name) LIKE ? ESCAPE '\\'"
+                : " WHERE fold_path(f.dir_id, f.file_name) LIKE ? ESCAPE '\\'");
+        List<FileIndexEntry> results = new ArrayList<>();
+
+        try (Connection conn = connectionManager.getConnection()) {
+            registerFoldFunctions(conn);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                int index = bindScope(pstmt, 1, range);
+                pstmt.setString(index, "%" + folded.replace("%", "\\%").replace("_", "\\_") + "%");
+                ResultSet rs = pstmt.executeQuery();
+
+                while (rs.next()) {
+                    results.add(resultSetToFileEntry(rs));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * SQL-функции fold(text) и fold_path(dir_id, file_name) - нормализация {@link TrigramUtils#fold}
+     * имени и полного пути файла. Соединение закрывается после каждого запроса,
+     * поэтому функции регистрируются при каждом вызове
+     */
+    private void registerFoldFunctions(Connection conn) throws SQLException {
+        org.sqlite.Function.create(conn, "fold", new org.sqlite.Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                result(TrigramUtils.fold(value_text(0)));
+            }
+        }, 1, org.sqlite.Function.FLAG_DETERMINISTIC);
+        org.sqlite.Function.create(conn, "fold_path", new org.sqlite.Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                result(TrigramUtils.fold(directories.filePath(value_int(0), value_text(1))));
+            }
+        }, 2, org.sqlite.Function.FLAG_DETERMINISTIC);
+    }
+
+    private void addTrigrams(PreparedStatement trigramStmt, long fileId, String fileName, String filePath)
+            throws SQLException {
+        addTrigramBatch(trigramStmt, fileId, TRIGRAM_FIELD_NAME, fileName);
+        addTrigramBatch(trigramStmt, fileId, TRIGRAM_FIELD_PATH, filePath);
+        trigramStmt.executeBatch();
+    }
+
+    private void addTrigramBatch(PreparedStatement trigramStmt, long fileId, int field, String value)
+            throws SQLException {
+        for (String trigram : TrigramUtils.trigrams(TrigramUtils.fold(value))) {
+            trigramStmt.setInt(1, field);
+            trigramStmt.setString(2, trigram);
+            trigramStmt.setLong(3, fileId);
+            trigramStmt.addBatch();
+        }
+    }
+
+    /**
+     * Строит триграммный индекс для базы, проиндексированной до его появления
+     */
+    private void ensureTrigramIndex() {
+        String checkSQL = """
+            SELECT EXISTS(SELECT 1 FROM files) AS has_files,
+                   EXISTS(SELECT 1 FROM file_trigrams) AS has_trigrams
+        """;
+
+        try (Connection conn = connectionManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+
+            boolean needsRebuild;
+            try (ResultSet rs = stmt.executeQuery(checkSQL)) {
+                needsRebuild = rs.next() && rs.getBoolean("has_files") && !rs.getBoolean("has_trigrams");
+            }
+            if (!needsRebuild) {
+                return;
+            }
+
+            logger.info("Построение триграммного индекса для существующих файлов...");
+            conn.setAutoCommit(false);
+            int files = 0;
+            try (ResultSet rs = stmt.executeQuery("SELECT id, dir_id, file_name FROM files");
+                 PreparedStatement trigramStmt = conn.prepareStatement(INSERT_TRIGRAM_SQL)) {
+                while (rs.next()) {
+                    String fileName = rs.getString("file_name");
+                    addTrigrams(trigramStmt, rs.getLong("id"), fileName,
+                            directories.filePath(rs.getInt("dir_id"), fileName));
+                    files++;
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            logger.info("Триграммный индекс построен для {} файлов", files);
+
+        } catch (SQLException e) {
+            logger.error("Не удалось построить триграммный индекс: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Заполняет статистику слов для базы, проиндексированной до ее появления
+     */
+    private void ensureTermStats() {
+        String checkSQL = """
+            SELECT EXISTS(SELECT 1 FROM file_contents) AS has_contents,
+                   EXISTS(SELECT 1 FROM term_stats) AS has_stats
+        """;
+
+        try (Connection conn = connectionManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+
+            boolean needsRebuild;
+            try (ResultSet rs = stmt.executeQuery(checkSQL)) {
+                needsRebuild = rs.next() && rs.getBoolean("has_contents") && !rs.getBoolean("has_stats");
+            }
+            if (!needsRebuild) {
+                return;
+            }
+
+            logger.info("Построение статистики слов для существующего индекса...");
+            // Слова файлов, перезаписанных через INSERT OR REPLACE, остались без владельца
+            int orphans = stmt.executeUpdate("DELETE FROM file_contents WHERE file_id NOT IN (SELECT id FROM files)");
+            int terms = stmt.executeUpdate("""
+                INSERT INTO term_stats (word, doc_freq, max_count)
+                SELECT word, COUNT(*), MAX(word_count) FROM file_contents GROUP BY word
+            """);
+            logger.info("Статистика построена для {} слов, удалено записей без файла: {}", terms, orphans);
+
+        } catch (SQLException e) {
+            logger.error("Не удалось построить статистику слов: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * ID частых слов пакета: найденные при обходе и уже хранящиеся битовыми картами
+     */
+    private BitSet loadFrequentTermIds(Connection conn, TermDictionary dictionary, BitSet crawlFrequent)
+            throws SQLException {
+        BitSet frequent = (BitSet) crawlFrequent.clone();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT word FROM frequent_terms")) {
+            while (rs.next()) {
+                int termId = dictionary.find(rs.getString(1));
+                if (termId >= 0) {
+                    frequent.set(termId);
+                }
+            }
+        }
+        return frequent;
+    }
+
+    /**
+     * Дописывает файлы пакета в битовые карты частых слов. Слово, ставшее частым впервые,
+     * переносится в карту вместе со своими прежними строками file_contents.
+     * Из всех карт убираются ID файлов, перезаписанных в этом пакете
+     */
+    private void saveFrequentTerms(Connection conn, TermDictionary dictionary, Map<Integer, BitSet> batchFiles,
+                                   BitSet replacedIds) throws SQLException {
+        Map<String, BitSet> updated = new HashMap<>();
+        for (Map.Entry<Integer, BitSet> term : batchFiles.entrySet()) {
+            updated.put(dictionary.term(term.getKey()), term.getValue());
+        }
+        if (updated.isEmpty() && replacedIds.isEmpty()) {
+            return;
+        }
+
+        Map<String, FileIdSet> stored = loadAllFrequentTerms(conn);
+        int moved = 0;
+        try (PreparedStatement selectStmt = conn.prepareStatement("SELECT file_id FROM file_contents WHERE word = ?");
+             PreparedStatement decrementStmt = conn.prepareStatement(
+                     "UPDATE term_stats SET doc_freq = doc_freq - ? WHERE word = ?");
+             PreparedStatement deleteStmt = conn.prepareStatement("DELETE FROM file_contents WHERE word = ?");
+             PreparedStatement upsertStmt = conn.prepareStatement(
+                     "INSERT OR REPLACE INTO frequent_terms (word, doc_freq, bitmap, format) VALUES (?, ?, ?, ?)")) {
+            for (Map.Entry<String, FileIdSet> term : stored.entrySet()) {
+                BitSet files = term.getValue().toBitSet();
+                BitSet added = updated.remove(term.getKey());
+                if (!files.intersects(replacedIds) && added == null) {
+                    continue;
+                }
+                // Замененные файлы этого слова больше не содержат - как и строки file_contents старых записей
+                BitSet removed = (BitSet) files.clone();
+                removed.and(replacedIds);
+                if (!removed.isEmpty()) {
+                    decrementStmt.setInt(1, removed.cardinality());
+                    decrementStmt.setString(2, term.getKey());
+                    decrementStmt.addBatch();
+                }
+                files.andNot(replacedIds);
+                if (added != null) {
+                    files.or(added);
+                }
+                writeFrequentTerm(upsertStmt, term.getKey(), files);
+            }
+
+            for (Map.Entry<String, BitSet> term : updated.entrySet()) {
+                BitSet files = term.getValue();
+                selectStmt.setString(1, term.getKey());
+                try (ResultSet rs = selectStmt.executeQuery()) {
+                    while (rs.next()) {
+                        files.set(Math.toIntExact(rs.getLong(1)));
+                    }
+                }
+                files.andNot(replacedIds);
+                deleteStmt.setString(1, term.getKey());
+                moved += deleteStmt.executeUpdate();
+                writeFrequentTerm(upsertStmt, term.getKey(), files);
+            }
+            upsertStmt.executeBatch();
+            decrementStmt.executeBatch();
+        }
+        if (!updated.isEmpty()) {
+            logger.info("Новых частых слов: {}, перенесено в битовые карты строк file_contents: {}",
+                    updated.size(), moved);
+        }
+    }
+
+    private static void writeFrequentTerm(PreparedStatement upsertStmt, String word, BitSet files)
+            throws SQLException {
+        upsertStmt.setString(1, word);
+        upsertStmt.setInt(2, files.cardinality());
+        upsertStmt.setBytes(3, FileIdSet.of(files).encode());
+        upsertStmt.setInt(4, FileIdSet.FORMAT_COMPACT);
+        upsertStmt.addBatch();
+    }
+
+    /**
+     * Частые слова для чтения (без изменения): загружаются один раз на поколение индекса.
+     * Слово без записи в карте хранится в file_contents
+     */
+    private synchronized NavigableMap<String, FileIdSet> cachedFrequentTerms(Connection conn) throws SQLException {
+        long generation = indexGeneration.get();
+        if (frequentTerms == null || frequentTermsGeneration != generation) {
+            frequentTerms = Collections.unmodifiableNavigableMap(loadAllFrequentTerms(conn));
+            frequentTermsGeneration = generation;
+        }
+        return frequentTerms;
+    }
+
+    private TreeMap<String, FileIdSet> loadAllFrequentTerms(Connection conn) throws SQLException {
+        TreeMap<String, FileIdSet> terms = new TreeMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT word, bitmap, format FROM frequent_terms")) {
+            while (rs.next()) {
+                terms.put(rs.getString(1), FileIdSet.decode(rs.getInt(3), rs.getBytes(2)));
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Фильтры Блума всех сегментов: слово может быть в индексе, только если его пропускает хотя бы один
+     */
+    public List<BloomFilter> loadTermBloomFilters() throws SQLException {
+        List<BloomFilter> filters = new ArrayList<>();
+        try (Connection conn = connectionManager.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT data FROM term_bloom_segments ORDER BY id")) {
+            while (rs.next()) {
+                filters.add(BloomFilter.fromBytes(rs.getBytes("data")));
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * Записывает фильтр Блума словаря пакета. Когда сегментов становится слишком много,
+     * они сливаются в один фильтр, построенный по term_stats
+     */
+    private void saveTermBloomSegment(Connection conn, TermDictionary dictionary, BatchTermStats stats)
+            throws SQLException {
+        if (stats.size() == 0) {
+            return;
+        }
+        BloomFilter filter = BloomFilter.create(stats.size(), BLOOM_FALSE_POSITIVE_RATE);
+        for (int i = 0; i < stats.size(); i++) {
+            filter.put(dictionary.term(stats.termIdAt(i)));
+        }
+        insertTermBloomSegment(conn, stats.size(), filter);
+
+        int segments;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM term_bloom_segments")) {
+            segments = rs.next() ? rs.getInt(1) : 0;
+        }
+        if (segments > BLOOM_MAX_SEGMENTS) {
+            rebuildTermBloomFilter(conn);
+        }
+    }
+
+    private void rebuildTermBloomFilter(Connection conn) throws SQLException {
+        List<String> words = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT word FROM term_stats")) {
+            while (rs.next()) {
+                words.add(rs.getString(1));
+            }
+        }
+        BloomFilter filter = BloomFilter.create(words.size(), BLOOM_FALSE_POSITIVE_RATE);
+        words.forEach(filter::put);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DELETE FROM term_bloom_segments");
+        }
+        insertTermBloomSegment(conn, words.size(), filter);
+        logger.info("Фильтры Блума слиты в один: {} слов, {} бит", words.size(), filter.getBitCount());
+    }
+
+    private void insertTermBloomSegment(Connection conn, int termCount, BloomFilter filter) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO term_bloom_segments (term_count, data) VALUES (?, ?)")) {
+            pstmt.setInt(1, termCount);
+            pstmt.setBytes(2, filter.toBytes());
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Строит фильтр Блума для индекса, записанного до появления фильтров
+     */
+    private void ensureTermBloomFilter() {
+        String checkSQL = """
+            SELECT EXISTS(SELECT 1 FROM term_stats) AS has_stats,
+                   EXISTS(SELECT 1 FROM term_bloom_segments) AS has_filters
+        """;
+
+        try (Connection conn = connectionManager.getConnection()) {
+            boolean needsBuild;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(checkSQL)) {
+                needsBuild = rs.next() && rs.getBoolean("has_stats") && !rs.getBoolean("has_filters");
+            }
+            if (needsBuild) {
+                rebuildTermBloomFilter(conn);
+            }
+        } catch (SQLException e) {
+            logger.error("Не удалось построить фильтр Блума: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Карантин файлов из таблицы quarantine
+     */
+    public Quarantine loadQuarantine() throws SQLException {
+        Quarantine quarantine = new Quarantine();
+        try (Connection conn = connectionManager.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT path, file_size, last_modified, reason FROM quarantine")) {
+            while (rs.next()) {
+                quarantine.load(new Quarantine.Entry(rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getString(4)));
+            }
+        }
+        return quarantine;
+    }
+
+    /**
+     * Записывает изменения карантина после обхода: новые файлы и снятые с карантина
+     */
+    public synchronized void saveQuarantine(Quarantine quarantine) throws SQLException {
+        List<Quarantine.Entry> added = quarantine.drainAdded();
+        List<String> released = quarantine.drainReleased();
+        if (added.isEmpty() && released.isEmpty()) {
+            return;
+        }
+        Connection conn = connectionManager.getConnection();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement deleteStmt = conn.prepareStatement("DELETE FROM quarantine WHERE path = ?");
+             PreparedStatement insertStmt = conn.prepareStatement(
+                     "INSERT OR REPLACE INTO quarantine (path, file_size, last_modified, reason, quarantined_at) "
+                             + "VALUES (?, ?, ?, ?, ?)")) {
+            for (String path : released) {
+                deleteStmt.setString(1, path);
+                deleteStmt.addBatch();
+            }
+            deleteStmt.executeBatch();
+            long now = System.currentTimeMillis();
+            for (Quarantine.Entry entry : added) {
+                insertStmt.setString(1, entry.getPath());
+                insertStmt.setLong(2, entry.getSize());
+                insertStmt.setLong(3, entry.getLastModified());
+                insertStmt.setString(4, entry.getReason());
+                insertStmt.setLong(5, now);
+                insertStmt.addBatch();
+            }
+            insertStmt.executeBatch();
+            conn.commit();
+            logger.info("Карантин: добавлено {}, снято {}", added.size(), released.size());
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Дерево каталогов индекса (только чтение)
+     */
+    public DirectoryTable getDirectories() {
+        return directories;
+    }
+
+    private int findDirectoryId(String normalizedPath) {
+        String directory = directoryOf(normalizedPath);
+        return directory == null ? DirectoryTable.NO_DIRECTORY : directories.find(directory);
+    }
+
+    private static String normalizePath(String path) {
+        return path.replace('\\', '/');
+    }
+
+    /**
+     * Каталог пути или null, если путь - одно имя без разделителей
+     */
+    private static String directoryOf(String normalizedPath) {
+        int separator = normalizedPath.lastIndexOf('/');
+        return separator >= 0 ? normalizedPath.substring(0, separator) : null;
+    }
+
+    private static String nameOf(String normalizedPath) {
+        return normalizedPath.substring(normalizedPath.lastIndexOf('/') + 1);
+    }
+
+    private void loadDirectories() {
+        try {
+            directories.load(connectionManager.getConnection());
+        } catch (SQLException e) {
+            logger.error("Не удалось загрузить каталоги: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Дописывает нумерацию обхода каталогам базы, созданной до появления колонок pre_order/post_order
+     */
+    private void saveDirectoryNumbering() {
+        try (Connection conn = connectionManager.getConnection()) {
+            directories.saveNumbering(conn);
+        } catch (SQLException e) {
+            logger.error("Не удалось сохранить нумерацию каталогов: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Переводит таблицу files старой схемы (полный путь в каждой строке) на dir_id + имя.
+     * ID файлов сохраняются, так что слова, триграммы и блоки текста остаются привязаны к файлам
+     */
+    private void migrateFilePaths() {
+        try (Connection conn = connectionManager.getConnection()) {
+            boolean hasPathColumn = false;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA table_info(files)")) {
+                while (rs.next()) {
+                    hasPathColumn |= "file_path".equalsIgnoreCase(rs.getString("name"));
+                }
+            }
+            if (!hasPathColumn) {
+                return;
+            }
+
+            logger.info("Перенос путей файлов в таблицу каталогов...");
+            conn.setAutoCommit(false);
+            int files = 0;
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(ConnectSQLLite.CREATE_FILES_TABLE_SQL.formatted("files_migrated"));
+                try (ResultSet rs = stmt.executeQuery(
+                        "SELECT id, file_path, file_size, last_modified, extension FROM files");
+                     PreparedStatement insertStmt = conn.prepareStatement("""
+                         INSERT OR REPLACE INTO files_migrated (id, dir_id, file_name, file_size, last_modified, extension)
+                         VALUES (?, ?, ?, ?, ?, ?)
+                     """)) {
+                    while (rs.next()) {
+                        String path = normalizePath(rs.getString("file_path"));
+                        String directory = directoryOf(path);
+                        insertStmt.setLong(1, rs.getLong("id"));
+                        insertStmt.setInt(2, directory == null
+                                ? DirectoryTable.NO_DIRECTORY : directories.resolve(conn, directory));
+                        insertStmt.setString(3, nameOf(path));
+                        insertStmt.setLong(4, rs.getLong("file_size"));
+                        insertStmt.setLong(5, rs.getLong("last_modified"));
+                        insertStmt.setString(6, rs.getString("extension"));
+                        insertStmt.executeUpdate();
+                        files++;
+                    }
+                }
+                stmt.execute("DROP TABLE files");
+                stmt.execute("ALTER TABLE files_migrated RENAME TO files");
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                directories.load(conn);
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            logger.info("Пути {} файлов перенесены, каталогов: {}", files, directories.size());
+        } catch (SQLException e) {
+            logger.error("Не удалось перенести пути файлов: {}", e.getMessage());
+        }
+    }
+
     private FileIndexEntry resultSetToFileEntry(ResultSet rs) throws SQLException {
+        String fileName = rs.getString("file_name");
         FileIndexEntry entry = new FileIndexEntry(
-                rs.getString("file_path"),
-                rs.getString("file_name"),
+                directories.filePath(rs.getInt("dir_id"), fileName),
                 rs.getLong("file_size"),
                 rs.getLong("last_modified"),
                 rs.getString("extension")
@@ -0,0 +1,279 @@
+package ru.gildina.indexer.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Дерево каталогов таблицы directories в памяти: каждый каталог - ссылка на родителя
+ * и имя последнего компонента, одинаковые имена хранятся одной строкой.
+ * Полный путь файла собирается по цепочке родителей, а не хранится в каждой строке files.
+ * Пути разделяются '/', ID 0 - "нет каталога" (относительный путь из одного имени).
+ * <p>
+ * Для поиска внутри поддерева каталоги нумеруются одним счетчиком при обходе в глубину
+ * (вход - preOrder, выход - postOrder): каталог d лежит в поддереве a, когда
+ * preOrder(a) <= preOrder(d) <= postOrder(a), то есть ограничение по поддереву -
+ * это одно сравнение с диапазоном, без обхода путей. Нумерация сохраняется в колонках
+ * pre_order и post_order, чтобы тот же диапазон можно было проверить в SQL.
+ */
+public class DirectoryTable {
+    public static final int NO_DIRECTORY = 0;
+
+    private int[] parents = new int[256];
+    private String[] names = new String[256];
+    private final Map<String, Integer> children = new HashMap<>();
+    private final Map<String, String> namePool = new HashMap<>();
+    private int maxId;
+    // Нумерация обхода, пересчитывается лениво после добавления каталогов
+    private int[] preOrders = new int[0];
+    private int[] postOrders = new int[0];
+    private boolean numbered;
+    // Совпадает ли нумерация в таблице directories с текущей
+    private boolean numberingSaved;
+
+    /**
+     * Перечитывает таблицу directories
+     */
+    public synchronized void load(Connection conn) throws SQLException {
+        Arrays.fill(parents, 0);
+        Arrays.fill(names, null);
+        children.clear();
+        namePool.clear();
+        maxId = 0;
+        numbered = false;
+        Map<Integer, long[]> saved = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, parent_id, name, pre_order, post_order FROM directories")) {
+            while (rs.next()) {
+                put(rs.getInt(1), rs.getInt(2), rs.getString(3));
+                long pre = rs.getLong(4);
+                saved.put(rs.getInt(1), rs.wasNull() ? null : new long[]{pre, rs.getLong(5)});
+            }
+        }
+        ensureNumbering();
+        numberingSaved = true;
+        for (Map.Entry<Integer, long[]> row : saved.entrySet()) {
+            long[] orders = row.getValue();
+            if (orders == null || orders[0] != preOrders[row.getKey()] || orders[1] != postOrders[row.getKey()]) {
+                numberingSaved = false;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Записывает нумерацию обхода в таблицу directories, если она изменилась
+     * (добавлены каталоги). Вызывается в транзакции, добавившей каталоги, до ее фиксации
+     */
+    public synchronized void saveNumbering(Connection conn) throws SQLException {
+        if (numberingSaved) {
+            return;
+        }
+        ensureNumbering();
+        try (PreparedStatement updateStmt = conn.prepareStatement(
+                "UPDATE directories SET pre_order = ?, post_order = ? WHERE id = ?")) {
+            for (int id = 1; id <= maxId; id++) {
+                if (names[id] != null) {
+                    updateStmt.setInt(1, preOrders[id]);
+                    updateStmt.setInt(2, postOrders[id]);
+                    updateStmt.setInt(3, id);
+                    updateStmt.addBatch();
+                }
+            }
+            updateStmt.executeBatch();
+        }
+        numberingSaved = true;
+    }
+
+    /**
+     * ID каталога по пути или -1, если такого каталога нет
+     */
+    public synchronized int find(String directoryPath) {
+        int current = NO_DIRECTORY;
+        for (String name : split(directoryPath)) {
+            Integer child = children.get(key(current, name));
+            if (child == null) {
+                return -1;
+            }
+            current = child;
+        }
+        return current;
+    }
+
+    /**
+     * ID каталога по пути; недостающие каталоги добавляются в таблицу в транзакции conn
+     */
+    public synchronized int resolve(Connection conn, String directoryPath) throws SQLException {
+        int current = NO_DIRECTORY;
+        PreparedStatement insertStmt = null;
+        try {
+            for (String name : split(directoryPath)) {
+                Integer child = children.get(key(current, name));
+                if (child == null) {
+                    if (insertStmt == null) {
+                        insertStmt = conn.prepareStatement(
+                                "INSERT INTO directories (id, parent_id, name) VALUES (?, ?, ?)");
+                    }
+                    child = maxId + 1;
+                    insertStmt.setInt(1, child);
+                    insertStmt.setInt(2, current);
+                    insertStmt.setString(3, name);
+                    insertStmt.executeUpdate();
+                    put(child, current, name);
+                }
+                current = child;
+            }
+        } finally {
+            if (insertStmt != null) {
+                insertStmt.close();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Путь каталога через '/'; пустая строка для NO_DIRECTORY
+     */
+    public synchronized String pathOf(int directoryId) {
+        if (directoryId == NO_DIRECTORY) {
+            return "";
+        }
+        StringBuilder path = new StringBuilder();
+        appendPath(path, directoryId);
+        return path.toString();
+    }
+
+    /**
+     * Полный путь файла каталога
+     */
+    public String filePath(int directoryId, String fileName) {
+        return directoryId == NO_DIRECTORY ? fileName : pathOf(directoryId) + '/' + fileName;
+    }
+
+    /**
+     * Номер каталога при входе в обходе в глубину
+     */
+    public synchronized int preOrder(int directoryId) {
+        ensureNumbering();
+        return preOrders[directoryId];
+    }
+
+    /**
+     * Номер при выходе: у всех каталогов поддерева preOrder не больше этого значения
+     */
+    public synchronized int postOrder(int directoryId) {
+        ensureNumbering();
+        return postOrders[directoryId];
+    }
+
+    /**
+     * Лежит ли каталог directoryId в поддереве scopeId (включая сам scopeId)
+     */
+    public synchronized boolean isWithin(int directoryId, int scopeId) {
+        ensureNumbering();
+        int pre = preOrders[directoryId];
+        return pre >= preOrders[scopeId] && pre <= postOrders[scopeId];
+    }
+
+    public synchronized int getParent(int directoryId) {
+        return parents[directoryId];
+    }
+
+    public synchronized int getMaxId() {
+        return maxId;
+    }
+
+    public synchronized int size() {
+        return children.size();
+    }
+
+    /**
+     * Обход в глубину без рекурсии; списки детей - через первого ребенка и следующего брата
+     */
+    private void ensureNumbering() {
+        if (numbered) {
+            return;
+        }
+        int count = maxId + 1;
+        int[] firstChild = new int[count];
+        int[] nextSibling = new int[count];
+        Arrays.fill(firstChild, -1);
+        for (int id = maxId; id >= 1; id--) {
+            if (names[id] != null) {
+                nextSibling[id] = firstChild[parents[id]];
+                firstChild[parents[id]] = id;
+            }
+        }
+
+        preOrders = new int[count];
+        postOrders = new int[count];
+        int clock = 0;
+        int[] stack = new int[count];
+        int[] cursor = new int[count];
+        int depth = 0;
+        stack[0] = NO_DIRECTORY;
+        cursor[0] = firstChild[NO_DIRECTORY];
+        preOrders[NO_DIRECTORY] = clock++;
+        while (depth >= 0) {
+            int child = cursor[depth];
+            if (child < 0) {
+                postOrders[stack[depth]] = clock++;
+                depth--;
+                continue;
+            }
+            cursor[depth] = nextSibling[child];
+            preOrders[child] = clock++;
+            depth++;
+            stack[depth] = child;
+            cursor[depth] = firstChild[child];
+        }
+        numbered = true;
+    }
+
+    private void appendPath(StringBuilder path, int directoryId) {
+        int parent = parents[directoryId];
+        if (parent != NO_DIRECTORY) {
+            appendPath(path, parent);
+            path.append('/');
+        }
+        path.append(names[directoryId]);
+    }
+
+    private void put(int id, int parent, String name) {
+        if (id >= parents.length) {
+            int capacity = Math.max(id + 1, parents.length * 2);
+            parents = Arrays.copyOf(parents, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        String pooled = namePool.computeIfAbsent(name, n -> n);
+        parents[id] = parent;
+        names[id] = pooled;
+        children.put(key(parent, pooled), id);
+        maxId = Math.max(maxId, id);
+        numbered = false;
+        numberingSaved = false;
+    }
+
+    private static String key(int parent, String name) {
+        return parent + "/" + name;
+    }
+
+    /**
+     * Компоненты пути каталога. Первый компонент может быть пустым - так кодируется ведущий '/'
+     */
+    static String[] split(String directoryPath) {
+        String[] parts = directoryPath.replace('\\', '/').split("/", -1);
+        int count = 0;
+        for (int i = 0; i < parts.length; i++) {
+            if (i == 0 || !parts[i].isEmpty()) {
+                parts[count++] = parts[i];
+            }
+        }
+        return Arrays.copyOf(parts, count);
+    }
+}
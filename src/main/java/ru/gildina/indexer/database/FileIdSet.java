@@ -0,0 +1,151 @@
+package ru.gildina.indexer.database;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Неизменяемое множество ID файлов частого слова (таблица frequent_terms).
+ * ID файлов растут с каждой переиндексацией, поэтому битовая карта от нуля занимала бы память
+ * по наибольшему ID, а не по числу файлов. Множество хранится в более компактном из двух видов:
+ * битовая карта от наименьшего ID или отсортированный массив ID, если файлов мало
+ * относительно разброса ID. В обоих случаях объем не больше 4 байт на файл.
+ */
+final class FileIdSet {
+    // Формат колонки frequent_terms.format: битовая карта от нуля (старые базы) или компактный вид
+    static final int FORMAT_PLAIN_BITMAP = 0;
+    static final int FORMAT_COMPACT = 1;
+
+    private static final byte KIND_BITMAP = 0;
+    private static final byte KIND_ARRAY = 1;
+
+    // Битовая карта: бит i - файл base + i
+    private final int base;
+    private final BitSet bits;
+    // Отсортированные ID, если множество хранится массивом
+    private final int[] ids;
+    private final int cardinality;
+
+    private FileIdSet(int base, BitSet bits, int[] ids) {
+        this.base = base;
+        this.bits = bits;
+        this.ids = ids;
+        this.cardinality = ids != null ? ids.length : bits.cardinality();
+    }
+
+    /**
+     * Компактное множество из битовой карты ID от нуля
+     */
+    static FileIdSet of(BitSet files) {
+        int first = files.nextSetBit(0);
+        if (first < 0) {
+            return new FileIdSet(0, new BitSet(), null);
+        }
+        int count = files.cardinality();
+        long span = (long) files.length() - first;
+        if ((long) count * Integer.SIZE < span) {
+            return new FileIdSet(0, null, files.stream().toArray());
+        }
+        return new FileIdSet(first, files.get(first, files.length()), null);
+    }
+
+    static FileIdSet decode(int format, byte[] data) {
+        if (format == FORMAT_PLAIN_BITMAP) {
+            return of(BitSet.valueOf(data));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        byte kind = buffer.get();
+        if (kind == KIND_ARRAY) {
+            int[] ids = new int[buffer.getInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = buffer.getInt();
+            }
+            return new FileIdSet(0, null, ids);
+        }
+        int base = buffer.getInt();
+        return new FileIdSet(base, BitSet.valueOf(buffer), null);
+    }
+
+    /**
+     * Представление для колонки bitmap в формате {@link #FORMAT_COMPACT}
+     */
+    byte[] encode() {
+        if (ids != null) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 + Integer.BYTES * (1 + ids.length));
+            buffer.put(KIND_ARRAY).putInt(ids.length);
+            for (int id : ids) {
+                buffer.putInt(id);
+            }
+            return buffer.array();
+        }
+        byte[] bitmap = bits.toByteArray();
+        return ByteBuffer.allocate(1 + Integer.BYTES + bitmap.length)
+                .put(KIND_BITMAP).putInt(base).put(bitmap).array();
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    boolean contains(long id) {
+        if (id < 0 || id > Integer.MAX_VALUE) {
+            return false;
+        }
+        if (ids != null) {
+            return Arrays.binarySearch(ids, (int) id) >= 0;
+        }
+        return id >= base && bits.get((int) id - base);
+    }
+
+    /**
+     * Наименьший ID не меньше from или -1
+     */
+    int nextId(int from) {
+        if (ids != null) {
+            int index = Arrays.binarySearch(ids, from);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index < ids.length ? ids[index] : -1;
+        }
+        int bit = bits.nextSetBit(Math.max(0, from - base));
+        return bit < 0 ? -1 : base + bit;
+    }
+
+    /**
+     * Наибольший ID не больше from или -1
+     */
+    int previousId(int from) {
+        if (ids != null) {
+            int index = Arrays.binarySearch(ids, from);
+            if (index >= 0) {
+                return ids[index];
+            }
+            index = -index - 1;
+            return index > 0 ? ids[index - 1] : -1;
+        }
+        if (from < base) {
+            return -1;
+        }
+        int bit = bits.previousSetBit(from - base);
+        return bit < 0 ? -1 : base + bit;
+    }
+
+    /**
+     * Наибольший ID или -1 для пустого множества
+     */
+    int lastId() {
+        return previousId(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Битовая карта ID от нуля - для изменения множества при записи пакета
+     */
+    BitSet toBitSet() {
+        BitSet files = new BitSet();
+        for (int id = nextId(0); id >= 0; id = id == Integer.MAX_VALUE ? -1 : nextId(id + 1)) {
+            files.set(id);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,9 @@
+package ru.gildina.indexer.database;
+
+/**
+ * Получает строки таблицы files при потоковом чтении метаданных
+ */
+@FunctionalInterface
+public interface FileMetadataRowHandler {
+    void accept(long id, int directoryId, String path, long size, long lastModified, String extension);
+}
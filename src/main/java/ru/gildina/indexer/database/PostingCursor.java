@@ -0,0 +1,38 @@
+package ru.gildina.indexer.database;
+
+import java.sql.SQLException;
+
+/**
+ * Курсор по постингам одного слова, упорядоченным по ID файла
+ */
+public interface PostingCursor extends AutoCloseable {
+    long NO_MORE_DOCS = Long.MAX_VALUE;
+
+    /**
+     * ID текущего файла или NO_MORE_DOCS, если постинги закончились
+     */
+    long docId();
+
+    /**
+     * Количество вхождений слова в текущий файл
+     */
+    int count();
+
+    /**
+     * Верхняя граница count() по всем файлам
+     */
+    int maxCount();
+
+    /**
+     * Переходит к следующему файлу и возвращает его ID
+     */
+    long next() throws SQLException;
+
+    /**
+     * Переходит к первому файлу с ID не меньше target и возвращает его ID
+     */
+    long advance(long target) throws SQLException;
+
+    @Override
+    void close() throws SQLException;
+}
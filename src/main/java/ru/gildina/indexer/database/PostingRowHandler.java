@@ -0,0 +1,9 @@
+package ru.gildina.indexer.database;
+
+/**
+ * Получает строки таблицы file_contents при потоковом чтении всех слов
+ */
+@FunctionalInterface
+public interface PostingRowHandler {
+    void accept(String word, long fileId, int count);
+}
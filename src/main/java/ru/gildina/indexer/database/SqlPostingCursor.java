@@ -0,0 +1,117 @@
+package ru.gildina.indexer.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Курсор постингов поверх таблицы file_contents.
+ * Читает блоки по индексу (word, file_id, word_count); переход далеко вперед -
+ * это новый поиск по B-дереву, а не чтение всех промежуточных строк.
+ */
+public class SqlPostingCursor implements PostingCursor {
+    private static final int BLOCK_SIZE = 256;
+    private static final String SELECT_BLOCK_SQL = """
+        SELECT file_id, word_count FROM file_contents
+        WHERE word = ? AND file_id >= ?
+        ORDER BY file_id
+        LIMIT ?
+    """;
+
+    private final PreparedStatement stmt;
+    private final String word;
+    private final int maxCount;
+    private final long[] docs = new long[BLOCK_SIZE];
+    private final int[] counts = new int[BLOCK_SIZE];
+
+    private int size;
+    private int pos;
+    private boolean lastBlock;
+    private long current;
+
+    public SqlPostingCursor(Connection conn, String word, int maxCount) throws SQLException {
+        this.stmt = conn.prepareStatement(SELECT_BLOCK_SQL);
+        this.word = word;
+        this.maxCount = maxCount;
+        fetchBlock(Long.MIN_VALUE);
+    }
+
+    @Override
+    public long docId() {
+        return current;
+    }
+
+    @Override
+    public int count() {
+        return counts[pos];
+    }
+
+    @Override
+    public int maxCount() {
+        return maxCount;
+    }
+
+    @Override
+    public long next() throws SQLException {
+        if (current == NO_MORE_DOCS) {
+            return current;
+        }
+        if (pos + 1 < size) {
+            current = docs[++pos];
+        } else if (lastBlock) {
+            current = NO_MORE_DOCS;
+        } else {
+            fetchBlock(docs[size - 1] + 1);
+        }
+        return current;
+    }
+
+    @Override
+    public long advance(long target) throws SQLException {
+        if (current >= target) {
+            return current;
+        }
+        if (target <= docs[size - 1]) {
+            // Цель внутри уже прочитанного блока
+            int found = Arrays.binarySearch(docs, pos + 1, size, target);
+            pos = found >= 0 ? found : -found - 1;
+            current = docs[pos];
+        } else if (lastBlock) {
+            current = NO_MORE_DOCS;
+        } else {
+            fetchBlock(target);
+        }
+        return current;
+    }
+
+    private void fetchBlock(long fromDocId) throws SQLException {
+        stmt.setString(1, word);
+        stmt.setLong(2, fromDocId);
+        stmt.setInt(3, BLOCK_SIZE);
+
+        size = 0;
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                docs[size] = rs.getLong(1);
+                counts[size] = rs.getInt(2);
+                size++;
+            }
+        }
+
+        pos = 0;
+        lastBlock = size < BLOCK_SIZE;
+        current = size > 0 ? docs[0] : NO_MORE_DOCS;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        stmt.close();
+    }
+
+    @Override
+    public String toString() {
+        return "SqlPostingCursor{" + word + ", doc=" + current + '}';
+    }
+}
@@ -0,0 +1,33 @@
+package ru.gildina.indexer.database;
+
+/**
+ * Статистика слова в индексе: число файлов со словом и максимум вхождений в одном файле
+ */
+public class TermStats {
+    private final String word;
+    private final int docFreq;
+    private final int maxCount;
+
+    public TermStats(String word, int docFreq, int maxCount) {
+        this.word = word;
+        this.docFreq = docFreq;
+        this.maxCount = maxCount;
+    }
+
+    public String getWord() {
+        return word;
+    }
+
+    public int getDocFreq() {
+        return docFreq;
+    }
+
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    @Override
+    public String toString() {
+        return word + "(df=" + docFreq + ", max=" + maxCount + ")";
+    }
+}
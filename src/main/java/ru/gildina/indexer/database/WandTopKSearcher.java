@@ -0,0 +1,116 @@
+package ru.gildina.indexer.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.LongPredicate;
+
+/**
+ * Отбор top-K файлов алгоритмом WAND.
+ * Релевантность файла - сумма count() курсоров, стоящих на нем. Курсоры упорядочены
+ * по текущему файлу; опорным (pivot) выбирается первый файл, на котором сумма верхних
+ * границ maxCount() может превысить порог - худший результат в заполненной куче.
+ * Все файлы до опорного пропускаются без подсчета.
+ */
+public class WandTopKSearcher {
+    private final int k;
+    // Файлы, не прошедшие фильтр, пропускаются без подсчета (null - без фильтра)
+    private final LongPredicate filter;
+
+    public WandTopKSearcher(int k) {
+        this(k, null);
+    }
+
+    public WandTopKSearcher(int k, LongPredicate filter) {
+        this.k = k;
+        this.filter = filter;
+    }
+
+    public List<ScoredDoc> search(List<PostingCursor> cursors) throws SQLException {
+        PriorityQueue<ScoredDoc> heap = new PriorityQueue<>(k, WORST_FIRST);
+        List<PostingCursor> active = new ArrayList<>(cursors);
+        active.removeIf(cursor -> cursor.docId() == PostingCursor.NO_MORE_DOCS);
+
+        while (!active.isEmpty()) {
+            active.sort(Comparator.comparingLong(PostingCursor::docId));
+
+            // Пока куча не заполнена, в нее проходит любой файл
+            long threshold = heap.size() < k ? 0 : heap.peek().getScore();
+            int pivot = findPivot(active, threshold);
+            if (pivot < 0) {
+                break;
+            }
+
+            long pivotDoc = active.get(pivot).docId();
+            if (active.get(0).docId() == pivotDoc) {
+                boolean accepted = filter == null || filter.test(pivotDoc);
+                long score = 0;
+                for (PostingCursor cursor : active) {
+                    if (cursor.docId() != pivotDoc) {
+                        break;
+                    }
+                    score += cursor.count();
+                    cursor.next();
+                }
+                if (accepted) {
+                    collect(heap, new ScoredDoc(pivotDoc, score));
+                }
+            } else {
+                // Файлы перед опорным не могут набрать порог - перескакиваем к нему
+                for (int i = 0; i < pivot; i++) {
+                    active.get(i).advance(pivotDoc);
+                }
+            }
+            active.removeIf(cursor -> cursor.docId() == PostingCursor.NO_MORE_DOCS);
+        }
+
+        List<ScoredDoc> result = new ArrayList<>(heap);
+        result.sort(WORST_FIRST.reversed());
+        return result;
+    }
+
+    private static int findPivot(List<PostingCursor> sorted, long threshold) {
+        long upperBound = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            upperBound += sorted.get(i).maxCount();
+            if (upperBound > threshold) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void collect(PriorityQueue<ScoredDoc> heap, ScoredDoc doc) {
+        if (heap.size() < k) {
+            heap.add(doc);
+        } else if (WORST_FIRST.compare(doc, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(doc);
+        }
+    }
+
+    // При равной релевантности выше файл с меньшим ID
+    private static final Comparator<ScoredDoc> WORST_FIRST = Comparator
+            .comparingLong(ScoredDoc::getScore)
+            .thenComparing(Comparator.comparingLong(ScoredDoc::getDocId).reversed());
+
+    public static class ScoredDoc {
+        private final long docId;
+        private final long score;
+
+        public ScoredDoc(long docId, long score) {
+            this.docId = docId;
+            this.score = score;
+        }
+
+        public long getDocId() {
+            return docId;
+        }
+
+        public long getScore() {
+            return score;
+        }
+    }
+}
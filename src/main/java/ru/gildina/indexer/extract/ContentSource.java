@@ -0,0 +1,101 @@
+package ru.gildina.indexer.extract;
+
+import ru.gildina.indexer.util.InputSupplier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Содержимое для извлечения текста: файл на диске или член архива (archive.zip!/dir/doc.txt).
+ * Член архива читается потоком без распаковки на диск; форматам с произвольным доступом
+ * (PDF, DOCX) файл на диске отдается как Path
+ */
+public interface ContentSource extends InputSupplier {
+    int GZIP_BUFFER_SIZE = 65536;
+
+    /**
+     * Путь файла или виртуальный путь члена архива - для логов
+     */
+    String getName();
+
+    /**
+     * Размер несжатого содержимого, -1 - неизвестен
+     */
+    long getSize();
+
+    /**
+     * Файл на диске или null для члена архива
+     */
+    Path getPath();
+
+    static ContentSource of(Path file) {
+        return new ContentSource() {
+            @Override
+            public String getName() {
+                return file.toString();
+            }
+
+            @Override
+            public long getSize() {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    return -1;
+                }
+            }
+
+            @Override
+            public Path getPath() {
+                return file;
+            }
+
+            @Override
+            public InputStream open() throws IOException {
+                return Files.newInputStream(file);
+            }
+        };
+    }
+
+    /**
+     * Распакованное содержимое gzip-файла: распаковка идет потоком при каждом открытии,
+     * ни на диск, ни целиком в память ничего не выкладывается
+     */
+    static ContentSource gunzip(ContentSource compressed) {
+        return member(compressed.getName(), -1, () -> {
+            InputStream in = compressed.open();
+            try {
+                return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        });
+    }
+
+    static ContentSource member(String name, long size, InputSupplier content) {
+        return new ContentSource() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public long getSize() {
+                return size;
+            }
+
+            @Override
+            public Path getPath() {
+                return null;
+            }
+
+            @Override
+            public InputStream open() throws IOException {
+                return content.open();
+            }
+        };
+    }
+}
@@ -0,0 +1,11 @@
+package ru.gildina.indexer.extract;
+
+/**
+ * Класс стоимости извлечения текста
+ */
+public enum CostClass {
+    /** Чтение и декодирование потока - порядка скорости диска */
+    LIGHT,
+    /** Разбор контейнера или разметки (PDF, OOXML) - в разы дороже чтения файла */
+    HEAVY
+}
@@ -0,0 +1,33 @@
+package ru.gildina.indexer.extract;
+
+import ru.gildina.indexer.util.DocxTextExtractor;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+public class DocxExtractor implements TextExtractor {
+
+    @Override
+    public String getName() {
+        return "docx";
+    }
+
+    @Override
+    public int getVersion() {
+        return DocxTextExtractor.VERSION;
+    }
+
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.HEAVY;
+    }
+
+    @Override
+    public void extract(ContentSource source, Consumer<String> sink) throws IOException {
+        if (source.getPath() != null) {
+            DocxTextExtractor.extractText(source.getPath(), sink);
+        } else {
+            DocxTextExtractor.extractText(source.getName(), source, sink);
+        }
+    }
+}
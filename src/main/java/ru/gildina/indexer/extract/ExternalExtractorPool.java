@@ -0,0 +1,313 @@
+package ru.gildina.indexer.extract;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.gildina.indexer.util.AppConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Пул дочерних JVM для тяжелых извлекателей (PDF, DOCX). Разбор документа идет в отдельном процессе
+ * с небольшой кучей, а текст возвращается построчно через канал stdout, так что огромный документ
+ * не переполняет кучу индексатора и не вызывает в ней долгих сборок мусора. Процесс перезапускается
+ * после заданного числа файлов; процесс, упавший на документе (например, по нехватке памяти),
+ * заменяется новым, а документ попадает в карантин.
+ * Члены архивов извлекаются в процессе индексатора - у них нет пути, который можно передать процессу.
+ */
+public class ExternalExtractorPool implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ExternalExtractorPool.class);
+
+    // Ответы процесса: строка текста, конец файла, ошибка извлечения
+    static final byte LINE = 'L';
+    static final byte DONE = 'D';
+    static final byte ERROR = 'E';
+
+    private static final String WORKER_LOGBACK = "logback-worker.xml";
+    // Системные свойства, передаваемые процессу: настройки извлечения и кодировка имен файлов
+    private static final String CONFIG_PREFIX = "indexing.";
+    private static final String[] PASSED_PROPERTIES = {"sun.jnu.encoding", "file.encoding"};
+    private static final long POLL_MILLIS = 2;
+    private static final long EXIT_WAIT_MILLIS = 2000;
+
+    private final int maxWorkers;
+    private final int heapMb;
+    private final int filesPerWorker;
+    private final Deque<Worker> idle = new ArrayDeque<>();
+    private final AtomicInteger workerCounter = new AtomicInteger();
+    private int liveWorkers;
+
+    /**
+     * @param maxWorkers     наибольшее число одновременно работающих процессов
+     * @param heapMb         куча одного процесса, МБ
+     * @param filesPerWorker число файлов, после которого процесс перезапускается
+     */
+    public ExternalExtractorPool(int maxWorkers, int heapMb, int filesPerWorker) {
+        this.maxWorkers = maxWorkers;
+        this.heapMb = heapMb;
+        this.filesPerWorker = Math.max(1, filesPerWorker);
+    }
+
+    /**
+     * Пул из настроек indexing.extract.external.*; null, если извлечение в дочерних процессах выключено
+     */
+    public static ExternalExtractorPool fromConfig() {
+        int workers = AppConfig.getInt("indexing.extract.external.workers", 0);
+        if (workers <= 0) {
+            return null;
+        }
+        return new ExternalExtractorPool(workers,
+                AppConfig.getInt("indexing.extract.external.heap.mb", 256),
+                AppConfig.getInt("indexing.extract.external.files.per.worker", 100));
+    }
+
+    /**
+     * Извлекатель с теми же именем, версией, настройками и классом стоимости, что и delegate, но работающий
+     * в дочернем процессе; текст в кэше извлечения у них общий
+     */
+    public TextExtractor wrap(TextExtractor delegate) {
+        return new ExternalExtractor(delegate);
+    }
+
+    /**
+     * Останавливает свободные процессы; пул остается рабочим и при следующем файле запускает новые
+     */
+    @Override
+    public synchronized void close() {
+        while (!idle.isEmpty()) {
+            idle.pollFirst().stop();
+            liveWorkers--;
+        }
+        notifyAll();
+    }
+
+    private synchronized Worker acquire() throws IOException {
+        while (true) {
+            Worker worker = idle.pollFirst();
+            if (worker != null) {
+                if (worker.process.isAlive()) {
+                    return worker;
+                }
+                liveWorkers--;
+                continue;
+            }
+            if (liveWorkers < maxWorkers) {
+                worker = new Worker(startProcess());
+                liveWorkers++;
+                return worker;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Ожидание процесса извлечения текста прервано");
+            }
+        }
+    }
+
+    private synchronized void release(Worker worker) {
+        if (++worker.files >= filesPerWorker) {
+            logger.debug("Процесс извлечения текста {} перезапускается после {} файлов", worker.id, worker.files);
+            worker.stop();
+            liveWorkers--;
+        } else {
+            idle.addFirst(worker);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Процесс в неизвестном состоянии (оборванный ответ, прерывание) больше не используется
+     */
+    private synchronized void discard(Worker worker) {
+        worker.process.destroyForcibly();
+        liveWorkers--;
+        notifyAll();
+    }
+
+    private Process startProcess() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + heapMb + "m");
+        command.add("-XX:+ExitOnOutOfMemoryError");
+        // Сообщения самой JVM (в том числе о нехватке памяти) не должны попадать в канал ответов
+        command.add("-XX:+DisplayVMOutputToStderr");
+        command.add("-Dlogback.configurationFile=" + WORKER_LOGBACK);
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(CONFIG_PREFIX)) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        for (String name : PASSED_PROPERTIES) {
+            if (System.getProperty(name) != null) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ExtractorWorker.class.getName());
+
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        logger.debug("Запущен процесс извлечения текста {} (куча {} МБ)", process.pid(), heapMb);
+        return process;
+    }
+
+    private final class ExternalExtractor implements TextExtractor {
+        private final TextExtractor delegate;
+
+        ExternalExtractor(TextExtractor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getName() {
+            return delegate.getName();
+        }
+
+        @Override
+        public int getVersion() {
+            return delegate.getVersion();
+        }
+
+        @Override
+        public String getSettings() {
+            return delegate.getSettings();
+        }
+
+        @Override
+        public CostClass getCostClass() {
+            return delegate.getCostClass();
+        }
+
+        @Override
+        public void extract(ContentSource source, Consumer<String> sink) throws IOException {
+            if (source.getPath() == null) {
+                delegate.extract(source, sink);
+                return;
+            }
+            Worker worker = acquire();
+            String error;
+            try {
+                worker.send(delegate.getName(), source.getPath().toAbsolutePath().toString());
+                error = worker.receive(sink);
+            } catch (IOException | RuntimeException e) {
+                discard(worker);
+                throw e;
+            }
+            release(worker);
+            if (error != null) {
+                throw new IOException(error);
+            }
+        }
+    }
+
+    private final class Worker {
+        final Process process;
+        final int id;
+        final DataOutputStream out;
+        final DataInputStream in;
+        int files;
+        private byte[] lineBuffer = new byte[8192];
+
+        Worker(Process process) {
+            this.process = process;
+            this.id = workerCounter.incrementAndGet();
+            this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(process.getInputStream(), 65536));
+        }
+
+        void send(String extractor, String path) throws IOException {
+            out.writeUTF(extractor);
+            out.writeUTF(path);
+            out.flush();
+        }
+
+        /**
+         * Передает строки ответа в sink; возвращает сообщение об ошибке извлечения или null
+         */
+        String receive(Consumer<String> sink) throws IOException {
+            while (true) {
+                int type = readType();
+                switch (type) {
+                    case LINE:
+                        int length = in.readInt();
+                        if (length > lineBuffer.length) {
+                            lineBuffer = new byte[Math.max(length, lineBuffer.length * 2)];
+                        }
+                        in.readFully(lineBuffer, 0, length);
+                        sink.accept(new String(lineBuffer, 0, length, StandardCharsets.UTF_8));
+                        break;
+                    case DONE:
+                        return null;
+                    case ERROR:
+                        return in.readUTF();
+                    case -1:
+                        throw new ExtractionLimitException("Процесс извлечения текста завершился аварийно"
+                                + exitCode());
+                    default:
+                        throw new IOException("Неверный ответ процесса извлечения текста: " + type);
+                }
+            }
+        }
+
+        /**
+         * Чтение из канала не реагирует на прерывание потока, поэтому ответ ждется опросом:
+         * так поток, брошенный сторожем по сроку, останавливает и процесс
+         */
+        private int readType() throws IOException {
+            while (in.available() == 0 && process.isAlive()) {
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Извлечение текста прервано");
+                }
+            }
+            return in.read();
+        }
+
+        private String exitCode() {
+            try {
+                if (process.waitFor(EXIT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return " (код " + process.exitValue() + ")";
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "";
+        }
+
+        /**
+         * Закрытие stdin завершает процесс; не завершившийся в срок останавливается принудительно
+         */
+        void stop() {
+            try {
+                out.close();
+                if (!process.waitFor(EXIT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (IOException e) {
+                process.destroyForcibly();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
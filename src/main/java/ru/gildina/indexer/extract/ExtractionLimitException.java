@@ -0,0 +1,15 @@
+package ru.gildina.indexer.extract;
+
+import java.io.IOException;
+
+/**
+ * Извлечение текста прервано: файл превысил бюджет времени или объема текста.
+ * Такие файлы помещаются в карантин и не разбираются повторно, пока не изменятся
+ */
+public class ExtractionLimitException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ExtractionLimitException(String message) {
+        super(message);
+    }
+}
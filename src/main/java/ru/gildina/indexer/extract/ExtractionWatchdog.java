@@ -0,0 +1,160 @@
+package ru.gildina.indexer.extract;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.gildina.indexer.util.AppConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Ограничение времени и объема извлечения текста одного файла.
+ * Извлечение идет в отдельном потоке; если к сроку оно не закончилось, поток прерывается
+ * и бросается - разбор, зависший внутри библиотеки, не держит обход каталога, а строки
+ * от брошенного потока в sink больше не попадают. Объем текста проверяется на каждой строке.
+ */
+public class ExtractionWatchdog {
+    private static final Logger logger = LoggerFactory.getLogger(ExtractionWatchdog.class);
+
+    private final long timeoutMillis;
+    private final long maxChars;
+    private final AtomicInteger threadCounter = new AtomicInteger();
+    private ExecutorService worker;
+    private int abandonedThreads;
+
+    /**
+     * @param timeoutMillis срок извлечения одного файла, 0 - без ограничения
+     * @param maxChars      максимум символов текста одного файла, 0 - без ограничения
+     */
+    public ExtractionWatchdog(long timeoutMillis, long maxChars) {
+        this.timeoutMillis = timeoutMillis;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Ограничения из настроек indexing.extract.timeout.sec и indexing.extract.max.chars
+     */
+    public static ExtractionWatchdog fromConfig() {
+        return new ExtractionWatchdog(
+                AppConfig.getLong("indexing.extract.timeout.sec", 60) * 1000,
+                AppConfig.getLong("indexing.extract.max.chars", 50_000_000L));
+    }
+
+    /**
+     * Извлекает текст с ограничениями
+     *
+     * @throws ExtractionLimitException если превышен срок или объем текста
+     */
+    public void extract(ContentSource source, TextExtractor extractor, Consumer<String> sink) throws IOException {
+        if (timeoutMillis <= 0) {
+            // Без срока поток не нужен - проверяется только объем
+            try {
+                extractor.extract(source, new GuardedSink(source.getName(), sink));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return;
+        }
+
+        GuardedSink guarded = new GuardedSink(source.getName(), sink);
+        Future<?> future = getWorker().submit(() -> {
+            extractor.extract(source, guarded);
+            return null;
+        });
+        try {
+            future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            guarded.cancel();
+            future.cancel(true);
+            abandonWorker();
+            throw new ExtractionLimitException("Извлечение текста (" + extractor.getName()
+                    + ") не уложилось в " + timeoutMillis / 1000 + " с");
+        } catch (InterruptedException e) {
+            guarded.cancel();
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Извлечение текста прервано", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Ошибка извлечения текста: " + cause, cause);
+        }
+    }
+
+    public synchronized int getAbandonedThreads() {
+        return abandonedThreads;
+    }
+
+    private synchronized ExecutorService getWorker() {
+        if (worker == null) {
+            worker = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "extract-worker-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return worker;
+    }
+
+    /**
+     * Поток, не ответивший на прерывание, может продолжать разбор; следующий файл получает новый поток
+     */
+    private synchronized void abandonWorker() {
+        if (worker != null) {
+            worker.shutdownNow();
+            worker = null;
+            abandonedThreads++;
+            logger.warn("Поток извлечения текста брошен по сроку (всего брошено: {})", abandonedThreads);
+        }
+    }
+
+    /**
+     * Sink с подсчетом объема; после отмены строки не принимает. Блокировка гарантирует,
+     * что после cancel() брошенный поток не изменит данные файла
+     */
+    private final class GuardedSink implements Consumer<String> {
+        private final String name;
+        private final Consumer<String> target;
+        private long chars;
+        private boolean cancelled;
+
+        GuardedSink(String name, Consumer<String> target) {
+            this.name = name;
+            this.target = target;
+        }
+
+        @Override
+        public synchronized void accept(String line) {
+            if (cancelled) {
+                throw new UncheckedIOException(new ExtractionLimitException("Извлечение отменено: " + name));
+            }
+            chars += line.length();
+            if (maxChars > 0 && chars > maxChars) {
+                cancelled = true;
+                throw new UncheckedIOException(new ExtractionLimitException(
+                        "Текст файла превысил " + maxChars + " символов"));
+            }
+            target.accept(line);
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+        }
+    }
+}
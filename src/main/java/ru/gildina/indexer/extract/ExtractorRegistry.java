@@ -0,0 +1,226 @@
+package ru.gildina.indexer.extract;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Выбор извлекателя текста по содержимому файла: формат определяется по сигнатуре первых байтов,
+ * поэтому переименованный PDF все равно читается как PDF, а бинарный файл с расширением .txt
+ * пропускается, а не декодируется как текст.
+ */
+public class ExtractorRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(ExtractorRegistry.class);
+
+    // Сколько первых байтов читается для определения формата
+    static final int SNIFF_BYTES = 4096;
+
+    private static final String WORD_DOCUMENT = "word/document.xml";
+    private static final byte[] PDF_MAGIC = {'%', 'P', 'D', 'F', '-'};
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+    private static final byte[] GZIP_MAGIC = {0x1F, (byte) 0x8B};
+    // Распространенные бинарные форматы: исполняемые файлы, изображения, архивы, OLE (doc, xls), class.
+    // bzip2 тоже здесь: распаковщика в JDK нет, а сжатые данные как текст не читаются
+    // Короткие сигнатуры из печатных символов (MZ, BM) не проверяются - такие файлы ловит проверка нулевых байтов
+    private static final byte[][] BINARY_MAGICS = {
+            {0x7F, 'E', 'L', 'F'},
+            {(byte) 0x89, 'P', 'N', 'G'},
+            {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF},
+            {'G', 'I', 'F', '8'},
+            {'7', 'z', (byte) 0xBC, (byte) 0xAF},
+            {'R', 'a', 'r', '!'},
+            {'B', 'Z', 'h'},
+            {(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0},
+            {(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE},
+            {'S', 'Q', 'L', 'i', 't', 'e', ' ', 'f', 'o', 'r', 'm', 'a', 't'}
+    };
+    // Доля управляющих байтов (кроме табуляции, переводов строки, перевода страницы и ESC),
+    // выше которой содержимое считается бинарным: в случайных данных их около 12%
+    private static final double MAX_CONTROL_RATIO = 0.05;
+    // Для содержимого, которое не является UTF-8: доля управляющих байтов и байтов 0x80-0xBF.
+    // В однобайтовых кодировках кириллицы и латиницы буквы лежат в основном в 0xC0-0xFF
+    private static final double MAX_SUSPICIOUS_RATIO = 0.3;
+
+    private final Map<FileFormat, TextExtractor> extractors = new EnumMap<>(FileFormat.class);
+
+    /**
+     * Реестр со стандартными извлекателями: PDF, DOCX и текст
+     */
+    public static ExtractorRegistry createDefault() {
+        ExtractorRegistry registry = new ExtractorRegistry();
+        registry.register(FileFormat.PDF, new PdfExtractor());
+        registry.register(FileFormat.DOCX, new DocxExtractor());
+        registry.register(FileFormat.TEXT, new PlainTextExtractor());
+        return registry;
+    }
+
+    public void register(FileFormat format, TextExtractor extractor) {
+        extractors.put(format, extractor);
+    }
+
+    /**
+     * Извлекатель для формата; null - содержимое такого формата не индексируется
+     */
+    public TextExtractor forFormat(FileFormat format) {
+        return extractors.get(format);
+    }
+
+    /**
+     * Извлекатель по имени (pdf, docx, text); null - такого нет
+     */
+    public TextExtractor forName(String name) {
+        for (TextExtractor extractor : extractors.values()) {
+            if (extractor.getName().equals(name)) {
+                return extractor;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Определяет формат файла по первым байтам; для ZIP дополнительно проверяется
+     * наличие word/document.xml (у файла на диске читается только центральный каталог архива)
+     */
+    public FileFormat sniff(Path file) throws IOException {
+        return sniff(ContentSource.of(file));
+    }
+
+    public FileFormat sniff(ContentSource source) throws IOException {
+        byte[] header;
+        try (InputStream is = source.open()) {
+            header = is.readNBytes(SNIFF_BYTES);
+        }
+        FileFormat format = sniff(header);
+        if (format == FileFormat.ZIP && isWordDocument(source)) {
+            format = FileFormat.DOCX;
+        }
+        logger.debug("Формат {}: {}", source.getName(), format);
+        return format;
+    }
+
+    static FileFormat sniff(byte[] header) {
+        if (header.length == 0) {
+            return FileFormat.EMPTY;
+        }
+        if (startsWith(header, PDF_MAGIC)) {
+            return FileFormat.PDF;
+        }
+        if (startsWith(header, ZIP_MAGIC)) {
+            return FileFormat.ZIP;
+        }
+        if (startsWith(header, GZIP_MAGIC)) {
+            return FileFormat.GZIP;
+        }
+        for (byte[] magic : BINARY_MAGICS) {
+            if (startsWith(header, magic)) {
+                return FileFormat.BINARY;
+            }
+        }
+        // UTF-16 с BOM содержит нулевые байты, но это текст
+        if (header.length >= 2 && ((header[0] == (byte) 0xFF && header[1] == (byte) 0xFE)
+                || (header[0] == (byte) 0xFE && header[1] == (byte) 0xFF))) {
+            return FileFormat.TEXT;
+        }
+        return looksBinary(header) ? FileFormat.BINARY : FileFormat.TEXT;
+    }
+
+    /**
+     * Дешевая проверка начала файла до любого декодирования: нулевой байт, много управляющих байтов
+     * или, если начало не UTF-8, много байтов, которые в однобайтовых кодировках редко бывают буквами
+     */
+    static boolean looksBinary(byte[] header) {
+        int control = 0;
+        int upper = 0;
+        for (byte b : header) {
+            int c = b & 0xFF;
+            if (c == 0) {
+                return true;
+            }
+            if ((c < 0x20 && c != '\t' && c != '\n' && c != '\r' && c != '\f' && c != 0x1B) || c == 0x7F) {
+                control++;
+            } else if (c >= 0x80 && c < 0xC0) {
+                upper++;
+            }
+        }
+        if (control > header.length * MAX_CONTROL_RATIO) {
+            return true;
+        }
+        return !isUtf8(header) && control + upper > header.length * MAX_SUSPICIOUS_RATIO;
+    }
+
+    /**
+     * Корректный ли UTF-8; последовательность, оборванная в конце прочитанного начала, ошибкой не считается
+     */
+    private static boolean isUtf8(byte[] data) {
+        int i = 0;
+        while (i < data.length) {
+            int c = data[i] & 0xFF;
+            int continuation;
+            if (c < 0x80) {
+                continuation = 0;
+            } else if (c >= 0xC2 && c <= 0xDF) {
+                continuation = 1;
+            } else if (c >= 0xE0 && c <= 0xEF) {
+                continuation = 2;
+            } else if (c >= 0xF0 && c <= 0xF4) {
+                continuation = 3;
+            } else {
+                return false;
+            }
+            for (int j = 1; j <= continuation; j++) {
+                if (i + j >= data.length) {
+                    return true;
+                }
+                if ((data[i + j] & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            i += continuation + 1;
+        }
+        return true;
+    }
+
+    private static boolean isWordDocument(ContentSource source) {
+        if (source.getPath() != null) {
+            try (ZipFile zip = new ZipFile(source.getPath().toFile())) {
+                return zip.getEntry(WORD_DOCUMENT) != null;
+            } catch (IOException e) {
+                logger.debug("Не удалось открыть ZIP {}: {}", source.getName(), e.getMessage());
+                return false;
+            }
+        }
+        // Член архива: имена частей читаются потоком по локальным заголовкам
+        try (ZipInputStream zip = new ZipInputStream(source.open())) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (WORD_DOCUMENT.equals(entry.getName())) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            logger.debug("Не удалось прочитать ZIP {}: {}", source.getName(), e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
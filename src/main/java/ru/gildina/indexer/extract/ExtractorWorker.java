@@ -0,0 +1,76 @@
+package ru.gildina.indexer.extract;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * Дочерний процесс пула {@link ExternalExtractorPool}. Читает из stdin запросы (имя извлекателя, путь файла)
+ * и пишет в stdout строки текста, а в конце каждого файла - признак завершения или сообщение об ошибке.
+ * Закрытие stdin - сигнал завершения процесса.
+ */
+public final class ExtractorWorker {
+    // Сообщение об ошибке передается через writeUTF, длина которого ограничена
+    private static final int MAX_ERROR_CHARS = 2000;
+
+    private ExtractorWorker() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        // stdout - канал ответов; логи и вывод библиотек идут в stderr
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), 65536));
+        System.setOut(System.err);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        ExtractorRegistry registry = ExtractorRegistry.createDefault();
+
+        while (true) {
+            String name;
+            try {
+                name = in.readUTF();
+            } catch (EOFException e) {
+                break;
+            }
+            String path = in.readUTF();
+            try {
+                TextExtractor extractor = registry.forName(name);
+                if (extractor == null) {
+                    throw new IOException("Неизвестный извлекатель текста: " + name);
+                }
+                extractor.extract(ContentSource.of(Paths.get(path)), line -> writeLine(out, line));
+                out.writeByte(ExternalExtractorPool.DONE);
+            } catch (UncheckedIOException e) {
+                // Канал к индексатору закрыт - продолжать незачем
+                throw e.getCause();
+            } catch (IOException | RuntimeException e) {
+                String message = e.getMessage() != null ? e.getMessage() : e.toString();
+                if (message.length() > MAX_ERROR_CHARS) {
+                    message = message.substring(0, MAX_ERROR_CHARS);
+                }
+                out.writeByte(ExternalExtractorPool.ERROR);
+                out.writeUTF(message);
+            }
+            out.flush();
+        }
+        out.flush();
+    }
+
+    private static void writeLine(DataOutputStream out, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        try {
+            out.writeByte(ExternalExtractorPool.LINE);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ru.gildina.indexer.extract;
+
+/**
+ * Формат файла, определенный по первым байтам содержимого, а не по расширению
+ */
+public enum FileFormat {
+    EMPTY,
+    PDF,
+    /** Документ Word в формате OOXML (docx, docm) */
+    DOCX,
+    /** Прочий ZIP-архив, в том числе другие OOXML документы */
+    ZIP,
+    /** Сжатый gzip поток; формат содержимого определяется после распаковки */
+    GZIP,
+    /** Известная бинарная сигнатура или нулевые байты в начале файла */
+    BINARY,
+    TEXT
+}
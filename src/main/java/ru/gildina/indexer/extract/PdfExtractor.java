@@ -0,0 +1,38 @@
+package ru.gildina.indexer.extract;
+
+import ru.gildina.indexer.util.PDFTextExtractor;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+public class PdfExtractor implements TextExtractor {
+
+    @Override
+    public String getName() {
+        return "pdf";
+    }
+
+    @Override
+    public int getVersion() {
+        return PDFTextExtractor.VERSION;
+    }
+
+    @Override
+    public String getSettings() {
+        return PDFTextExtractor.getSettings();
+    }
+
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.HEAVY;
+    }
+
+    @Override
+    public void extract(ContentSource source, Consumer<String> sink) throws IOException {
+        if (source.getPath() != null) {
+            PDFTextExtractor.extractText(source.getPath(), sink);
+        } else {
+            PDFTextExtractor.extractText(source.getName(), source, sink);
+        }
+    }
+}
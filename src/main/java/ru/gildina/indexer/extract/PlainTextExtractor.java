@@ -0,0 +1,175 @@
+package ru.gildina.indexer.extract;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.gildina.indexer.util.AppConfig;
+import ru.gildina.indexer.util.InputSupplier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Текстовые файлы любого размера. Кодировка выбирается по началу файла: UTF-16 по BOM, иначе
+ * первая кодировка из списка, в которой начало декодируется без ошибок (ISO-8859-1 подходит всегда).
+ * Затем файл читается кусками в один переиспользуемый буфер: в sink уходят строки, а строка
+ * длиннее буфера режется по границе слова, так что память не зависит ни от размера файла,
+ * ни от длины строк. Если задан бюджет символов, у файла длиннее индексируется только начало.
+ */
+public class PlainTextExtractor implements TextExtractor {
+    private static final Logger logger = LoggerFactory.getLogger(PlainTextExtractor.class);
+
+    private static final Charset[] CHARSETS = {
+            StandardCharsets.UTF_8,
+            Charset.forName("Windows-1251"),
+            Charset.forName("KOI8-R"),
+            StandardCharsets.ISO_8859_1
+    };
+    // Сколько байтов начала файла проверяется при выборе кодировки
+    private static final int PROBE_BYTES = Math.max(1, AppConfig.getInt("indexing.text.charset.probe.kb", 64)) * 1024;
+    // Размер буфера чтения в символах - он же наибольшая длина строки, отдаваемой в sink
+    private static final int CHUNK_CHARS = Math.max(1, AppConfig.getInt("indexing.text.chunk.kb", 64)) * 1024;
+    // Через сколько прочитанных символов сообщать о ходе чтения большого файла (каждый кусок - в debug)
+    private static final long PROGRESS_CHARS = Math.max(1, AppConfig.getLong("indexing.text.progress.mb", 8)) << 20;
+    // Сколько символов файла индексируется; по умолчанию (0) файл читается целиком
+    private static final long MAX_CHARS = AppConfig.getLong("indexing.text.max.chars", 0);
+
+    @Override
+    public String getName() {
+        return "text";
+    }
+
+    @Override
+    public int getVersion() {
+        return 3;
+    }
+
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.LIGHT;
+    }
+
+    @Override
+    public void extract(ContentSource source, Consumer<String> sink) throws IOException {
+        Charset charset = detectCharset(source);
+        logger.debug("Файл {} читается в кодировке {}", source.getName(), charset);
+
+        char[] buffer = new char[CHUNK_CHARS];
+        long limit = MAX_CHARS > 0 ? MAX_CHARS : Long.MAX_VALUE;
+        long totalChars = 0;
+        long nextProgress = PROGRESS_CHARS;
+        boolean truncated = false;
+        try (Reader reader = new InputStreamReader(source.open(), charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE))) {
+            // В начале буфера - хвост незаконченной строки из предыдущего куска
+            int length = 0;
+            while (true) {
+                int request = (int) Math.min(buffer.length - length, limit - totalChars);
+                if (request == 0) {
+                    // Бюджет исчерпан: если текст продолжается, хвост отдается до последней границы слова
+                    truncated = reader.read() >= 0;
+                    if (truncated) {
+                        length = lastWordBoundary(buffer, length);
+                    }
+                    break;
+                }
+                int read = reader.read(buffer, length, request);
+                if (read < 0) {
+                    break;
+                }
+                int scanFrom = length;
+                length += read;
+                int start = 0;
+                for (int i = scanFrom; i < length; i++) {
+                    if (buffer[i] == '\n') {
+                        emit(buffer, start, i, sink);
+                        start = i + 1;
+                    }
+                }
+                if (start == 0 && length == buffer.length) {
+                    // Весь буфер - одна строка: отдаем ее до последней границы слова
+                    start = lastWordBoundary(buffer, length);
+                    emit(buffer, 0, start, sink);
+                }
+                System.arraycopy(buffer, start, buffer, 0, length - start);
+                length -= start;
+
+                totalChars += read;
+                logger.debug("Файл {}: прочитан кусок {} символов, всего {}", source.getName(), read, totalChars);
+                if (totalChars >= nextProgress) {
+                    logger.info("Файл {}: прочитано {} МБ текста", source.getName(), totalChars >> 20);
+                    nextProgress += PROGRESS_CHARS;
+                }
+            }
+            emit(buffer, 0, length, sink);
+        }
+        if (truncated) {
+            logger.warn("Текст файла {} длиннее {} символов, индексируется только начало", source.getName(), MAX_CHARS);
+        }
+    }
+
+    private static void emit(char[] buffer, int start, int end, Consumer<String> sink) {
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        if (end > start) {
+            sink.accept(new String(buffer, start, end - start));
+        }
+    }
+
+    /**
+     * Позиция после последнего символа, который не может быть частью слова; весь буфер, если таких нет
+     */
+    private static int lastWordBoundary(char[] buffer, int length) {
+        for (int i = length - 1; i > 0; i--) {
+            char c = buffer[i];
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-') {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    static Charset detectCharset(InputSupplier content) throws IOException {
+        byte[] probe;
+        try (InputStream is = content.open()) {
+            probe = is.readNBytes(PROBE_BYTES);
+        }
+        if (probe.length >= 2 && ((probe[0] == (byte) 0xFF && probe[1] == (byte) 0xFE)
+                || (probe[0] == (byte) 0xFE && probe[1] == (byte) 0xFF))) {
+            // UTF-16 с BOM: декодер UTF-16 сам определяет порядок байтов
+            return StandardCharsets.UTF_16;
+        }
+        // Если файл длиннее пробы, последний символ мог оборваться на ее границе - это не ошибка кодировки
+        boolean complete = probe.length < PROBE_BYTES;
+        for (int i = 0; i < CHARSETS.length - 1; i++) {
+            if (decodes(probe, CHARSETS[i], complete)) {
+                return CHARSETS[i];
+            }
+        }
+        return CHARSETS[CHARSETS.length - 1];
+    }
+
+    /**
+     * Декодируется ли проба без ошибок
+     */
+    private static boolean decodes(byte[] probe, Charset charset, boolean complete) {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer out = CharBuffer.allocate(probe.length + 1);
+        if (decoder.decode(ByteBuffer.wrap(probe), out, complete).isError()) {
+            return false;
+        }
+        return !complete || !decoder.flush(out).isError();
+    }
+}
@@ -0,0 +1,37 @@
+package ru.gildina.indexer.extract;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Извлекатель текста одного формата. Текст отдается построчно в sink по мере извлечения,
+ * целиком в памяти не собирается.
+ */
+public interface TextExtractor {
+
+    /**
+     * Короткое имя формата (pdf, docx, text) - для логов и ключа кэша извлеченного текста
+     */
+    String getName();
+
+    /**
+     * Версия алгоритма извлечения; после изменения алгоритма ее нужно увеличить,
+     * чтобы не использовать текст из кэша, извлеченный старой версией
+     */
+    int getVersion();
+
+    /**
+     * Настройки, от которых зависит извлеченный текст, - часть ключа кэша извлеченного текста,
+     * чтобы после их изменения не использовался текст, извлеченный с прежними настройками
+     */
+    default String getSettings() {
+        return "";
+    }
+
+    /**
+     * Насколько дорого извлечение - по нему тяжелые форматы кэшируются и выносятся в отдельный пул
+     */
+    CostClass getCostClass();
+
+    void extract(ContentSource source, Consumer<String> sink) throws IOException;
+}
@@ -5,17 +5,29 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 public class FileIndexEntry {
+    // Максимум уникальных слов на файл (предотвращаем переполнение)
+    public static final int MAX_UNIQUE_WORDS = 100_000;
+
     private Long id;
-    private String path;
+    // Путь хранится как каталог (с разделителем в конце) и имя; строка каталога общая
+    // для всех файлов одного каталога, полный путь собирается по запросу
+    private String directoryPrefix;
     private String fileName;
     private long size;
     private long lastModifiedTime;
     private String extension;
-    private Map<String, Integer> wordCounts = new HashMap<>();
+    // Количества слов и номера блоков текста, где слово встретилось впервые; создается при первом обращении
+    private TermCounter terms;
+    // Слова перенесены в буфер записи: итоги счетчика сохранены для статистики (-1 - не перенесены)
+    private long releasedTotalWords = -1;
+    private int releasedUniqueWords;
+    // Сжатый текст файла для сниппетов (null, если хранение текста выключено)
+    private StoredText storedText;
 
     public Long getId() {
         return id;
@@ -26,17 +38,27 @@ public class FileIndexEntry {
     }
 
     public String getPath() {
-        return path;
+        return fileName == null ? null : directoryPrefix + fileName;
     }
 
     public void setPath(String path) {
-        this.path = path;
+        if (path == null) {
+            this.directoryPrefix = "";
+            this.fileName = null;
+            return;
+        }
+        int separator = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        this.directoryPrefix = path.substring(0, separator + 1).intern();
+        this.fileName = path.substring(separator + 1);
     }
 
     public String getFileName() {
         return fileName;
     }
 
+    /**
+     * Меняет имя файла в том же каталоге
+     */
     public void setFileName(String fileName) {
         this.fileName = fileName;
     }
@@ -62,25 +84,87 @@ public class FileIndexEntry {
     }
 
     public void setExtension(String extension) {
-        this.extension = extension;
+        this.extension = extension != null ? extension.intern() : null;
     }
 
+    /**
+     * Копия счетчиков слов в виде Map - для отладки и старого кода;
+     * при индексации используйте {@link #getTerms()}
+     */
     public Map<String, Integer> getWordCounts() {
+        TermCounter terms = getTerms();
+        Map<String, Integer> wordCounts = new HashMap<>(terms.size() * 2);
+        terms.forEach((termId, count, firstBlock) -> wordCounts.put(terms.getDictionary().term(termId), count));
         return wordCounts;
     }
 
     public void setWordCounts(Map<String, Integer> wordCounts) {
-        this.wordCounts = wordCounts;
+        TermCounter terms = getTerms();
+        terms.clear();
+        wordCounts.forEach(terms::add);
     }
 
-    public FileIndexEntry(String filePath, String fileName, long fileSize,
-                          long lastModified, String extension) {
-        this.path = filePath;
-        this.fileName = fileName;
+    /**
+     * Счетчик слов. Если словарь не задан через {@link #useDictionary}, у записи свой небольшой словарь
+     */
+    public TermCounter getTerms() {
+        if (terms == null) {
+            terms = new TermCounter(new TermDictionary(), MAX_UNIQUE_WORDS);
+        }
+        return terms;
+    }
+
+    /**
+     * Привязывает слова записи к словарю прогона индексации, чтобы их ID были общими
+     * с построителем индекса. Вызывается до добавления слов
+     */
+    public void useDictionary(TermDictionary dictionary) {
+        if (terms != null && terms.size() > 0) {
+            throw new IllegalStateException("Словарь меняется после добавления слов: " + getPath());
+        }
+        terms = new TermCounter(dictionary, MAX_UNIQUE_WORDS);
+    }
+
+    /**
+     * Самые частые слова файла по убыванию количества
+     */
+    public List<Map.Entry<String, Integer>> getTopWords(int n) {
+        return getTerms().top(n);
+    }
+
+    public StoredText getStoredText() {
+        return storedText;
+    }
+
+    public void setStoredText(StoredText storedText) {
+        this.storedText = storedText;
+    }
+
+    /**
+     * Имя файла - последний компонент filePath
+     */
+    public FileIndexEntry(String filePath, long fileSize, long lastModified, String extension) {
+        setPath(filePath);
         this.size = fileSize;
         this.lastModifiedTime = lastModified;
-        this.extension = extension;
+        setExtension(extension);
     }
+
+    /**
+     * Независимая копия записи: метаданные, слова и итоги счетчика (без сохраненного текста)
+     */
+    public FileIndexEntry copy() {
+        FileIndexEntry copy = new FileIndexEntry(getPath(), size, lastModifiedTime, extension);
+        copy.id = id;
+        if (terms != null) {
+            copy.useDictionary(terms.getDictionary());
+            terms.forEach((termId, count, firstBlock) -> copy.terms.add(termId, count, firstBlock));
+        }
+        copy.releasedTotalWords = releasedTotalWords;
+        copy.releasedUniqueWords = releasedUniqueWords;
+        return copy;
+    }
+
     public String getFormattedLastModified() {
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         return sdf.format(new Date(lastModifiedTime));
@@ -92,13 +176,9 @@ public class FileIndexEntry {
     public void debugInfo() {
         System.out.println("FileIndexEntry Debug:");
         System.out.println("   File: " + fileName);
-        System.out.println("   Path: " + path);
-        System.out.println("   WordCounts reference: " + wordCounts);
-        System.out.println("   WordCounts is null: " + (wordCounts == null));
-        if (wordCounts != null) {
-            System.out.println("   WordCounts size: " + wordCounts.size());
-            System.out.println("   Total words: " + getTotalWords());
-        }
+        System.out.println("   Path: " + getPath());
+        System.out.println("   Unique words: " + getUniqueWords());
+        System.out.println("   Total words: " + getTotalWords());
     }
 
     /**
@@ -133,49 +213,79 @@ public class FileIndexEntry {
     }
 
     public FileIndexEntry(Path filePath, BasicFileAttributes attrs) {
-        this.path = filePath.toString();
-        this.fileName = filePath.getFileName().toString();
+        setPath(filePath.toString());
         this.size = attrs.size();
         this.lastModifiedTime = attrs.lastModifiedTime().toMillis();
 
-        String filename = filePath.getFileName().toString();
-        int dotIndex = filename.lastIndexOf('.');
+        int dotIndex = fileName.lastIndexOf('.');
         //extract extension, including hidden files
-        this.extension = (dotIndex > 0) ? filename.substring(dotIndex + 1) : "";
+        setExtension((dotIndex > 0) ? fileName.substring(dotIndex + 1) : "");
     }
 
     public void addWord(String word) {
         addWord(word, 1);
     }
 
+    /**
+     * Добавляет слово, уже приведенное к нижнему регистру.
+     * Новые слова сверх {@link #MAX_UNIQUE_WORDS} отбрасываются
+     */
     public void addWord(String word, int count) {
-        word = word.toLowerCase();
-        // Ограничиваем количество уникальных слов на файл (предотвращаем переполнение)
-        if (wordCounts.size() < 100000) { // Максимум 100,000 уникальных слов на файл
-            wordCounts.put(word, wordCounts.getOrDefault(word, 0) + count);
+        getTerms().add(word, count);
+    }
+
+    /**
+     * Добавляет слово и запоминает блок сохраненного текста, где оно встретилось впервые
+     */
+    public void addWordInBlock(String word, int textBlock) {
+        getTerms().add(word, 1, textBlock);
+    }
+
+    /**
+     * Номер первого блока сохраненного текста со словом или -1
+     */
+    public int getFirstBlock(String word) {
+        return getTerms().getFirstBlock(word.toLowerCase());
+    }
+
+    /**
+     * Сбрасывает слова и сохраненный текст перед повторным чтением файла
+     */
+    public void resetContent() {
+        getTerms().clear();
+        releasedTotalWords = -1;
+        if (storedText != null) {
+            storedText.clear();
         }
-        wordCounts.put(word, wordCounts.getOrDefault(word, 0) + count);
     }
 
     public int getWordCount(String word) {
-        return wordCounts.getOrDefault(word.toLowerCase(), 0);
+        return getTerms().get(word.toLowerCase());
     }
     public boolean containsWord(String word) {
-        return wordCounts.containsKey(word.toLowerCase());
+        return getTerms().contains(word.toLowerCase());
+    }
+    /**
+     * Освобождает счетчик слов после переноса слов в {@link PostingBuffer}.
+     * Общее и уникальное количество слов остаются доступны
+     */
+    public void releaseTerms() {
+        releasedTotalWords = getTerms().getTotal();
+        releasedUniqueWords = getTerms().size();
+        getTerms().clear();
     }
+
     public int getTotalWords() {
-        return wordCounts.values().stream().mapToInt(Integer::intValue).sum();
+        long total = releasedTotalWords >= 0 ? releasedTotalWords : getTerms().getTotal();
+        return (int) Math.min(Integer.MAX_VALUE, total);
     }
 
     public int getUniqueWords() {
-        return wordCounts.size();
+        return releasedTotalWords >= 0 ? releasedUniqueWords : getTerms().size();
     }
 
     public String getDirectory() {
-        if (path == null) return "";
-        int lastSeparator = path.lastIndexOf('/');
-        if (lastSeparator == -1) lastSeparator = path.lastIndexOf('\\');
-        return (lastSeparator > 0) ? path.substring(0, lastSeparator) : "";
+        return directoryPrefix.length() > 1 ? directoryPrefix.substring(0, directoryPrefix.length() - 1) : "";
     }
 
     // equals и hashCode
@@ -184,19 +294,19 @@ public class FileIndexEntry {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         FileIndexEntry that = (FileIndexEntry) o;
-        return Objects.equals(path, that.path);
+        return Objects.equals(directoryPrefix, that.directoryPrefix) && Objects.equals(fileName, that.fileName);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(path);
+        return Objects.hash(directoryPrefix, fileName);
     }
 
     // toString
     @Override
     public String toString() {
         return "FileIndexEntry{" +
-                "filePath='" + path + '\'' +
+                "filePath='" + getPath() + '\'' +
                 ", fileName='" + fileName + '\'' +
                 ", fileSize=" + size +
                 ", words=" + getTotalWords() +
@@ -0,0 +1,237 @@
+package ru.gildina.indexer.model;
+
+import ru.gildina.indexer.util.AppConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Вне-кучевой (direct) буфер записей "слово-файл", ожидающих записи в базу.
+ * Запись - четыре int: ID слова, номер файла в пакете, количество, первый блок текста.
+ * Память выделяется кусками и переиспользуется после {@link #clear()}: при повторном заполнении
+ * (например, после сброса прогона на диск) новые куски не выделяются. Число кусков ограничено
+ * емкостью буфера, так что размер пакета не увеличивает нагрузку на сборщик мусора.
+ */
+public class PostingBuffer implements AutoCloseable {
+    public static final int RECORD_BYTES = 16;
+
+    private final int recordsPerChunk;
+    // Наибольшее число записей; Long.MAX_VALUE - без ограничения
+    private final long capacity;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private long size;
+
+    public PostingBuffer() {
+        this(AppConfig.getInt("indexing.postings.chunk.kb", 1024) * 1024);
+    }
+
+    public PostingBuffer(int chunkBytes) {
+        this(chunkBytes, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxRecords емкость буфера в записях: кусков выделяется не больше, чем нужно для нее,
+     *                   последний кусок - по остатку
+     */
+    public PostingBuffer(int chunkBytes, long maxRecords) {
+        if (maxRecords < 1) {
+            throw new IllegalArgumentException("Емкость буфера записей должна быть положительной: " + maxRecords);
+        }
+        this.recordsPerChunk = (int) Math.min(Math.max(1, chunkBytes / RECORD_BYTES), maxRecords);
+        this.capacity = maxRecords;
+    }
+
+    public void add(int termId, int entryOrdinal, int count, int firstBlock) {
+        if (size >= capacity) {
+            throw new IllegalStateException("Буфер записей заполнен: " + capacity);
+        }
+        int chunkIndex = (int) (size / recordsPerChunk);
+        if (chunkIndex == chunks.size()) {
+            long records = Math.min(recordsPerChunk, capacity - (long) chunkIndex * recordsPerChunk);
+            chunks.add(ByteBuffer.allocateDirect((int) records * RECORD_BYTES).order(ByteOrder.nativeOrder()));
+        }
+        ByteBuffer chunk = chunks.get(chunkIndex);
+        int offset = (int) (size % recordsPerChunk) * RECORD_BYTES;
+        chunk.putInt(offset, termId);
+        chunk.putInt(offset + 4, entryOrdinal);
+        chunk.putInt(offset + 8, count);
+        chunk.putInt(offset + 12, firstBlock);
+        size++;
+    }
+
+    /**
+     * Переносит все слова файла из счетчика в буфер
+     *
+     * @return количество добавленных записей
+     */
+    public int append(int entryOrdinal, TermCounter terms) {
+        TermCounter.Cursor term = terms.cursor();
+        int added = 0;
+        while (term.next()) {
+            add(term.termId(), entryOrdinal, term.count(), term.firstBlock());
+            added++;
+        }
+        return added;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Достигнута ли емкость буфера - следующую запись добавить нельзя
+     */
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (ByteBuffer chunk : chunks) {
+            bytes += chunk.capacity();
+        }
+        return bytes;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Сортирует записи на месте по (ID слова, номер файла)
+     */
+    public void sort() {
+        quickSort(0, size - 1);
+    }
+
+    /**
+     * Последовательно записывает все записи в канал в порядке буфера
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        long remaining = size;
+        for (ByteBuffer chunk : chunks) {
+            if (remaining == 0) {
+                break;
+            }
+            int records = (int) Math.min(remaining, recordsPerChunk);
+            ByteBuffer slice = chunk.duplicate();
+            slice.position(0).limit(records * RECORD_BYTES);
+            while (slice.hasRemaining()) {
+                channel.write(slice);
+            }
+            remaining -= records;
+        }
+    }
+
+    /**
+     * Очищает буфер для следующего пакета или прогона, сохраняя выделенные куски
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Отпускает выделенную память (освобождается вместе с буферами при сборке мусора)
+     */
+    @Override
+    public void close() {
+        chunks.clear();
+        size = 0;
+    }
+
+    private void quickSort(long low, long high) {
+        while (high - low > 16) {
+            long pivotIndex = low + (high - low) / 2;
+            long pivot = keyAt(pivotIndex);
+            long i = low;
+            long j = high;
+            while (i <= j) {
+                while (keyAt(i) < pivot) {
+                    i++;
+                }
+                while (keyAt(j) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // Рекурсия по меньшей части, цикл по большей - глубина стека остается логарифмической
+            if (j - low < high - i) {
+                quickSort(low, j);
+                low = i;
+            } else {
+                quickSort(i, high);
+                high = j;
+            }
+        }
+        for (long i = low + 1; i <= high; i++) {
+            for (long j = i; j > low && keyAt(j - 1) > keyAt(j); j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    // Ключ сортировки: ID слова в старших битах, номер файла в младших
+    private long keyAt(long index) {
+        ByteBuffer chunk = chunks.get((int) (index / recordsPerChunk));
+        int offset = (int) (index % recordsPerChunk) * RECORD_BYTES;
+        return ((long) chunk.getInt(offset) << 32) | (chunk.getInt(offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private void swap(long a, long b) {
+        ByteBuffer chunkA = chunks.get((int) (a / recordsPerChunk));
+        ByteBuffer chunkB = chunks.get((int) (b / recordsPerChunk));
+        int offsetA = (int) (a % recordsPerChunk) * RECORD_BYTES;
+        int offsetB = (int) (b % recordsPerChunk) * RECORD_BYTES;
+        for (int field = 0; field < RECORD_BYTES; field += 4) {
+            int value = chunkA.getInt(offsetA + field);
+            chunkA.putInt(offsetA + field, chunkB.getInt(offsetB + field));
+            chunkB.putInt(offsetB + field, value);
+        }
+    }
+
+    public class Cursor implements PostingStream {
+        private long index = -1;
+        private ByteBuffer chunk;
+        private int offset;
+
+        @Override
+        public boolean next() {
+            if (++index >= size) {
+                return false;
+            }
+            chunk = chunks.get((int) (index / recordsPerChunk));
+            offset = (int) (index % recordsPerChunk) * RECORD_BYTES;
+            return true;
+        }
+
+        @Override
+        public int termId() {
+            return chunk.getInt(offset);
+        }
+
+        @Override
+        public int entryOrdinal() {
+            return chunk.getInt(offset + 4);
+        }
+
+        @Override
+        public int count() {
+            return chunk.getInt(offset + 8);
+        }
+
+        @Override
+        public int firstBlock() {
+            return chunk.getInt(offset + 12);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package ru.gildina.indexer.model;
+
+/**
+ * Последовательное чтение записей "слово-файл" для записи в базу
+ */
+public interface PostingStream extends AutoCloseable {
+    boolean next();
+
+    int termId();
+
+    /**
+     * Номер файла в пакете (индекс в списке записей файлов)
+     */
+    int entryOrdinal();
+
+    int count();
+
+    int firstBlock();
+
+    @Override
+    default void close() {
+    }
+}
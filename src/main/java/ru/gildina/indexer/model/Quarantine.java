@@ -0,0 +1,98 @@
+package ru.gildina.indexer.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Карантин файлов, на которых извлечение текста превысило бюджет. Такой файл пропускается
+ * при следующих обходах, пока не изменятся его размер или время изменения; тогда он
+ * снимается с карантина и разбирается заново. Изменения копятся в памяти и записываются
+ * в таблицу quarantine после обхода.
+ */
+public class Quarantine {
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final List<Entry> added = new ArrayList<>();
+    private final List<String> released = new ArrayList<>();
+
+    public static final class Entry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String reason;
+
+        public Entry(String path, long size, long lastModified, String reason) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.reason = reason;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    /**
+     * Запись, прочитанная из базы
+     */
+    public synchronized void load(Entry entry) {
+        entries.put(entry.getPath(), entry);
+    }
+
+    /**
+     * Причина карантина или null, если файл можно разбирать. Измененный файл снимается с карантина
+     */
+    public synchronized String check(String path, long size, long lastModified) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.getSize() == size && entry.getLastModified() == lastModified) {
+            return entry.getReason();
+        }
+        entries.remove(path);
+        added.remove(entry);
+        released.add(path);
+        return null;
+    }
+
+    public synchronized void add(String path, long size, long lastModified, String reason) {
+        Entry entry = new Entry(path, size, lastModified, reason);
+        entries.put(path, entry);
+        added.add(entry);
+        released.remove(path);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Записи, добавленные после загрузки, и пути, снятые с карантина; после вызова списки очищаются
+     */
+    public synchronized List<Entry> drainAdded() {
+        List<Entry> result = new ArrayList<>(added);
+        added.clear();
+        return result;
+    }
+
+    public synchronized List<String> drainReleased() {
+        List<String> result = new ArrayList<>(released);
+        released.clear();
+        return result;
+    }
+}
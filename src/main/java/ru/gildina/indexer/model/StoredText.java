@@ -0,0 +1,65 @@
+package ru.gildina.indexer.model;
+
+import ru.gildina.indexer.util.TextCompressor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Нормализованный текст файла, сжатый блоками.
+ * Строка никогда не разрывается между блоками, поэтому для слова достаточно
+ * запомнить номер блока, чтобы потом распаковать только его.
+ */
+public class StoredText {
+    private final int blockChars;
+    private final List<byte[]> blocks = new ArrayList<>();
+    private StringBuilder current = new StringBuilder();
+    private long compressedBytes;
+
+    public StoredText(int blockChars) {
+        this.blockChars = blockChars;
+    }
+
+    /**
+     * Добавляет строку и возвращает номер блока, в который она попала
+     */
+    public int append(String line) {
+        if (current.length() > 0) {
+            current.append(' ');
+        }
+        current.append(line);
+
+        int block = blocks.size();
+        if (current.length() >= blockChars) {
+            flushBlock();
+        }
+        return block;
+    }
+
+    /**
+     * Сжимает последний неполный блок. Вызывается перед сохранением.
+     */
+    public List<byte[]> finish() {
+        if (current.length() > 0) {
+            flushBlock();
+        }
+        return blocks;
+    }
+
+    public void clear() {
+        blocks.clear();
+        current = new StringBuilder();
+        compressedBytes = 0;
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    private void flushBlock() {
+        byte[] data = TextCompressor.compress(current.toString());
+        blocks.add(data);
+        compressedBytes += data.length;
+        current = new StringBuilder();
+    }
+}
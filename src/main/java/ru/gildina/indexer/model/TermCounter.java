@@ -0,0 +1,254 @@
+package ru.gildina.indexer.model;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Счетчик слов файла на открытой адресации с линейным пробированием.
+ * Ключи - ID слов из {@link TermDictionary}, количества хранятся в примитивном массиве
+ * (без String и Integer на каждое слово), общее число слов ведется на лету,
+ * число уникальных слов ограничено.
+ */
+public class TermCounter {
+    private static final int MIN_CAPACITY = 64;
+    private static final int EMPTY = -1;
+
+    private final TermDictionary dictionary;
+    private final int maxUniqueTerms;
+    private int[] keys;
+    private int[] counts;
+    // Номер первого блока сохраненного текста; выделяется только при хранении текста
+    private int[] firstBlocks;
+    private int size;
+    private long total;
+
+    public TermCounter(TermDictionary dictionary, int maxUniqueTerms) {
+        this.dictionary = dictionary;
+        this.maxUniqueTerms = maxUniqueTerms;
+        this.keys = emptyKeys(MIN_CAPACITY);
+        this.counts = new int[MIN_CAPACITY];
+    }
+
+    /**
+     * Увеличивает счетчик слова. Новые слова сверх лимита не добавляются
+     *
+     * @return false, если слово отброшено из-за лимита уникальных слов
+     */
+    public boolean add(String term, int count) {
+        return add(dictionary.idOf(term), count, -1);
+    }
+
+    public boolean add(String term, int count, int firstBlock) {
+        return add(dictionary.idOf(term), count, firstBlock);
+    }
+
+    public boolean add(int termId, int count, int firstBlock) {
+        int slot = slotOf(termId);
+        if (keys[slot] == EMPTY) {
+            if (size >= maxUniqueTerms) {
+                return false;
+            }
+            keys[slot] = termId;
+            if (firstBlock >= 0) {
+                ensureFirstBlocks()[slot] = firstBlock;
+            } else if (firstBlocks != null) {
+                firstBlocks[slot] = -1;
+            }
+            size++;
+            counts[slot] = count;
+            total += count;
+            if (size * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            return true;
+        }
+        counts[slot] += count;
+        total += count;
+        if (firstBlock >= 0 && (firstBlocks == null || firstBlocks[slot] < 0)) {
+            ensureFirstBlocks()[slot] = firstBlock;
+        }
+        return true;
+    }
+
+    public int get(String term) {
+        int termId = dictionary.find(term);
+        if (termId < 0) {
+            return 0;
+        }
+        int slot = slotOf(termId);
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    public boolean contains(String term) {
+        int termId = dictionary.find(term);
+        return termId >= 0 && keys[slotOf(termId)] != EMPTY;
+    }
+
+    /**
+     * Номер первого блока сохраненного текста со словом или -1
+     */
+    public int getFirstBlock(String term) {
+        int termId = dictionary.find(term);
+        if (termId < 0 || firstBlocks == null) {
+            return -1;
+        }
+        int slot = slotOf(termId);
+        return keys[slot] == EMPTY ? -1 : firstBlocks[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public void forEach(TermVisitor visitor) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                visitor.visit(keys[slot], counts[slot], firstBlocks == null ? -1 : firstBlocks[slot]);
+            }
+        }
+    }
+
+    /**
+     * Курсор по словам - для обходов, где обработчик может бросать проверяемые исключения
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Самые частые слова по убыванию количества - через кучу размера n, без сортировки всех слов
+     */
+    public List<Map.Entry<String, Integer>> top(int n) {
+        if (n <= 0 || size == 0) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<Integer> heap = new PriorityQueue<>(n, (a, b) -> Integer.compare(counts[a], counts[b]));
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] == EMPTY) {
+                continue;
+            }
+            if (heap.size() < n) {
+                heap.add(slot);
+            } else if (counts[slot] > counts[heap.peek()]) {
+                heap.poll();
+                heap.add(slot);
+            }
+        }
+        List<Map.Entry<String, Integer>> result = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            int slot = heap.poll();
+            result.add(new AbstractMap.SimpleImmutableEntry<>(dictionary.term(keys[slot]), counts[slot]));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    public void clear() {
+        keys = emptyKeys(MIN_CAPACITY);
+        counts = new int[MIN_CAPACITY];
+        firstBlocks = null;
+        size = 0;
+        total = 0;
+    }
+
+    private int slotOf(int termId) {
+        int mask = keys.length - 1;
+        int slot = mix(termId) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != termId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int[] ensureFirstBlocks() {
+        if (firstBlocks == null) {
+            firstBlocks = new int[keys.length];
+            Arrays.fill(firstBlocks, -1);
+        }
+        return firstBlocks;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        int[] oldFirstBlocks = firstBlocks;
+
+        keys = emptyKeys(capacity);
+        counts = new int[capacity];
+        firstBlocks = oldFirstBlocks == null ? null : new int[capacity];
+
+        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+            if (oldKeys[oldSlot] != EMPTY) {
+                int slot = slotOf(oldKeys[oldSlot]);
+                keys[slot] = oldKeys[oldSlot];
+                counts[slot] = oldCounts[oldSlot];
+                if (firstBlocks != null) {
+                    firstBlocks[slot] = oldFirstBlocks[oldSlot];
+                }
+            }
+        }
+    }
+
+    private static int[] emptyKeys(int capacity) {
+        int[] keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    // ID выдаются подряд - перемешиваем биты, чтобы соседние ID не занимали соседние ячейки
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    public class Cursor {
+        private int slot = -1;
+
+        public boolean next() {
+            while (++slot < keys.length) {
+                if (keys[slot] != EMPTY) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public int termId() {
+            return keys[slot];
+        }
+
+        public String term() {
+            return dictionary.term(keys[slot]);
+        }
+
+        public int count() {
+            return counts[slot];
+        }
+
+        public int firstBlock() {
+            return firstBlocks == null ? -1 : firstBlocks[slot];
+        }
+    }
+
+    @FunctionalInterface
+    public interface TermVisitor {
+        void visit(int termId, int count, int firstBlock);
+    }
+}
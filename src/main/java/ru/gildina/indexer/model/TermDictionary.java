@@ -0,0 +1,55 @@
+package ru.gildina.indexer.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Словарь слов одного прогона индексации: каждое слово при первом появлении получает
+ * постоянный int ID, и в памяти остается единственный экземпляр его строки.
+ * Счетчики файлов хранят только ID, запись в базу использует их же.
+ * Словарь создается построителем индекса и освобождается вместе с ним, поэтому
+ * слова прошлых прогонов не копятся в памяти долгоживущего процесса.
+ */
+public final class TermDictionary {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    // Строки по ID; ссылка на массив меняется только при расширении
+    private volatile String[] terms = new String[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * ID слова; новое слово регистрируется
+     */
+    public int idOf(String term) {
+        Integer id = ids.get(term);
+        if (id == null) {
+            id = ids.computeIfAbsent(term, this::register);
+        }
+        return id;
+    }
+
+    /**
+     * ID слова или -1, если слово еще не встречалось
+     */
+    public int find(String term) {
+        Integer id = ids.get(term);
+        return id == null ? -1 : id;
+    }
+
+    public String term(int id) {
+        return terms[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized Integer register(String term) {
+        if (size == terms.length) {
+            terms = Arrays.copyOf(terms, size * 2);
+        }
+        terms[size] = term;
+        return size++;
+    }
+}
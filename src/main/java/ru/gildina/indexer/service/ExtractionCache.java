@@ -0,0 +1,223 @@
+package ru.gildina.indexer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.gildina.indexer.extract.TextExtractor;
+import ru.gildina.indexer.util.AppConfig;
+import ru.gildina.indexer.util.InputSupplier;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Дисковый кэш извлеченного текста PDF и DOCX. Ключ - SHA-256 содержимого файла, имя, версия
+ * и настройки извлекателя, поэтому перестроение индекса после --clear или смены анализатора только заново
+ * разбивает текст на слова, а смена извлекателя (версии, настроек) делает старые записи ненужными.
+ * Записи сжаты Deflate; объем каталога ограничен, при превышении удаляются давно не читавшиеся
+ * записи (время последнего обращения хранится как время изменения файла записи).
+ */
+public class ExtractionCache {
+    private static final Logger logger = LoggerFactory.getLogger(ExtractionCache.class);
+    private static final String SUFFIX = ".txt.z";
+    // После вытеснения каталог занимает не больше этой доли лимита, чтобы не чистить его на каждой записи
+    private static final double EVICT_TO_RATIO = 0.9;
+
+    private final Path directory;
+    private final long maxBytes;
+    private long totalBytes;
+
+    /**
+     * Источник текста, вызываемый при промахе кэша
+     */
+    @FunctionalInterface
+    public interface TextSource {
+        void extract(Consumer<String> sink) throws IOException;
+    }
+
+    public ExtractionCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        for (Path entry : listEntries()) {
+            totalBytes += Files.size(entry);
+        }
+        logger.debug("Кэш извлеченного текста {}: {} байт", directory, totalBytes);
+    }
+
+    /**
+     * Кэш из настроек indexing.extraction.cache.*; null, если кэш выключен или каталог недоступен
+     */
+    public static ExtractionCache fromConfig() {
+        long maxMb = AppConfig.getLong("indexing.extraction.cache.max.mb", 256);
+        if (maxMb <= 0) {
+            return null;
+        }
+        Path directory = Paths.get(AppConfig.getString("indexing.extraction.cache.dir", "extraction-cache"));
+        try {
+            return new ExtractionCache(directory, maxMb * 1024 * 1024);
+        } catch (IOException e) {
+            logger.warn("Кэш извлеченного текста выключен, каталог {} недоступен: {}", directory, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Передает в sink строки текста файла: из кэша, если запись есть, иначе из source с сохранением в кэш.
+     *
+     * @param extractor извлекатель; его имя, версия и настройки - часть ключа записи
+     * @param reset     отменяет строки, уже переданные в sink из записи, оказавшейся поврежденной;
+     *                  после него текст извлекается из source заново
+     * @return true, если текст взят из кэша
+     */
+    public boolean extract(InputSupplier content, TextExtractor extractor, TextSource source,
+                           Runnable reset, Consumer<String> sink) throws IOException {
+        Path entry = directory.resolve(entryName(contentHash(content), extractor));
+        if (readEntry(entry, reset, sink)) {
+            return true;
+        }
+
+        Path temp = Files.createTempFile(directory, "extract", ".tmp");
+        try {
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                    new DeflaterOutputStream(Files.newOutputStream(temp)),
+                    StandardCharsets.UTF_8))) {
+                source.extract(line -> {
+                    try {
+                        writer.write(line.replace('\n', ' '));
+                        writer.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    sink.accept(line);
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            added(Files.size(entry));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return false;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private static String entryName(String hash, TextExtractor extractor) {
+        StringBuilder name = new StringBuilder(hash).append('-').append(extractor.getName())
+                .append('-').append(extractor.getVersion());
+        String settings = extractor.getSettings();
+        if (!settings.isEmpty()) {
+            name.append('-').append(Integer.toHexString(settings.hashCode()));
+        }
+        return name.append(SUFFIX).toString();
+    }
+
+    private boolean readEntry(Path entry, Runnable reset, Consumer<String> sink) throws IOException {
+        if (!Files.exists(entry)) {
+            return false;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new InflaterInputStream(Files.newInputStream(entry)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sink.accept(line);
+            }
+        } catch (IOException e) {
+            // Часть строк уже ушла в sink - они отменяются, и текст извлекается заново
+            logger.warn("Поврежденная запись кэша извлеченного текста удалена: {} - {}", entry, e.getMessage());
+            removed(entry);
+            reset.run();
+            return false;
+        }
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        return true;
+    }
+
+    private synchronized void added(long bytes) throws IOException {
+        totalBytes += bytes;
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        // Вытеснение по давности обращения
+        List<Path> entries = listEntries();
+        entries.sort(Comparator.comparingLong(ExtractionCache::lastAccess));
+        long target = (long) (maxBytes * EVICT_TO_RATIO);
+        for (Path entry : entries) {
+            if (totalBytes <= target) {
+                break;
+            }
+            removed(entry);
+        }
+        logger.debug("Кэш извлеченного текста вытеснен до {} байт", totalBytes);
+    }
+
+    private synchronized void removed(Path entry) throws IOException {
+        long size = Files.size(entry);
+        if (Files.deleteIfExists(entry)) {
+            totalBytes -= size;
+        }
+    }
+
+    private List<Path> listEntries() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> entries = new ArrayList<>();
+            files.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).forEach(entries::add);
+            return entries;
+        }
+    }
+
+    private static long lastAccess(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * SHA-256 содержимого, потоковым чтением
+     */
+    static String contentHash(InputSupplier content) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[65536];
+        try (InputStream is = content.open()) {
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,339 @@
+package ru.gildina.indexer.service;
+
+import ru.gildina.indexer.database.DatabaseManager;
+import ru.gildina.indexer.database.DirectoryTable;
+import ru.gildina.indexer.model.FileIndexEntry;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Метаданные всех проиндексированных файлов в компактных примитивных колонках.
+ * Строки упорядочены по ID файла; набор результатов поиска - это BitSet по номерам строк,
+ * так что фасеты и фильтры считаются без дополнительных запросов к базе.
+ * Ограничение по поддереву каталогов - диапазон номеров обхода {@link DirectoryTable}.
+ */
+public class FileMetadataColumns {
+    public static final String[] SIZE_BUCKETS = {"<10KB", "10KB-1MB", "1MB-10MB", "10MB-100MB", ">100MB"};
+    public static final String[] DATE_BUCKETS = {"day", "week", "month", "year", "older"};
+    public static final String ROOT_DIRECTORY = "(корень)";
+
+    private static final long[] SIZE_LIMITS = {10L * 1024, 1024L * 1024, 10L * 1024 * 1024, 100L * 1024 * 1024};
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long[] AGE_LIMITS = {DAY_MILLIS, 7 * DAY_MILLIS, 30 * DAY_MILLIS, 365 * DAY_MILLIS};
+
+    private final int size;
+    private final long[] ids;
+    private final int[] directoryIds;
+    private final DirectoryTable directories;
+    private final int[] extensionCodes;
+    private final int[] topDirectoryCodes;
+    private final byte[] sizeBuckets;
+    private final byte[] dateBuckets;
+    private final String[] extensions;
+    private final String[] topDirectories;
+
+    // Битовые маски строк для уже запрошенных значений фильтров
+    private final Map<String, BitSet> filterMasks = new HashMap<>();
+
+    private FileMetadataColumns(int size, long[] ids, int[] directoryIds, DirectoryTable directories,
+                                int[] extensionCodes, int[] topDirectoryCodes,
+                                byte[] sizeBuckets, byte[] dateBuckets,
+                                String[] extensions, String[] topDirectories) {
+        this.size = size;
+        this.ids = ids;
+        this.directoryIds = directoryIds;
+        this.directories = directories;
+        this.extensionCodes = extensionCodes;
+        this.topDirectoryCodes = topDirectoryCodes;
+        this.sizeBuckets = sizeBuckets;
+        this.dateBuckets = dateBuckets;
+        this.extensions = extensions;
+        this.topDirectories = topDirectories;
+    }
+
+    /**
+     * Загружает колонки одним проходом по таблице files
+     */
+    public static FileMetadataColumns load(DatabaseManager databaseManager) throws SQLException {
+        Loader loader = new Loader((int) Math.min(Integer.MAX_VALUE - 8, databaseManager.getIndexedFilesCount()));
+        databaseManager.scanFileMetadata(loader::add);
+        return loader.build(databaseManager.getDirectories());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Номер строки файла или -1, если файла нет в колонках
+     */
+    public int positionOf(long fileId) {
+        int position = Arrays.binarySearch(ids, 0, size, fileId);
+        return position >= 0 ? position : -1;
+    }
+
+    /**
+     * Проверяет, отмечен ли файл в маске строк
+     */
+    public boolean contains(BitSet mask, long fileId) {
+        int position = positionOf(fileId);
+        return position >= 0 && mask.get(position);
+    }
+
+    public BitSet positionsOf(List<FileIndexEntry> entries) {
+        BitSet positions = new BitSet(size);
+        for (FileIndexEntry entry : entries) {
+            if (entry.getId() != null) {
+                int position = positionOf(entry.getId());
+                if (position >= 0) {
+                    positions.set(position);
+                }
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Строки файлов из множества ID
+     */
+    public BitSet positionsOfIds(BitSet fileIds) {
+        BitSet positions = new BitSet(size);
+        for (int id = fileIds.nextSetBit(0); id >= 0; id = fileIds.nextSetBit(id + 1)) {
+            int position = positionOf(id);
+            if (position >= 0) {
+                positions.set(position);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Маска строк, проходящих все фильтры параметров, или null, если фильтров нет
+     */
+    public synchronized BitSet filter(SearchOptions options) {
+        if (!options.hasFilters()) {
+            return null;
+        }
+        BitSet result = new BitSet(size);
+        result.set(0, size);
+        if (options.getExtension() != null) {
+            result.and(mask("ext", options.getExtension(), extensions, extensionCodes));
+        }
+        if (options.getTopDirectory() != null) {
+            result.and(mask("dir", options.getTopDirectory(), topDirectories, topDirectoryCodes));
+        }
+        if (options.getSizeBucket() != null) {
+            result.and(bucketMask("size", options.getSizeBucket(), SIZE_BUCKETS, sizeBuckets));
+        }
+        if (options.getDateBucket() != null) {
+            result.and(bucketMask("date", options.getDateBucket(), DATE_BUCKETS, dateBuckets));
+        }
+        if (options.getScope() != null) {
+            result.and(scopeMask(options.getScope()));
+        }
+        return result;
+    }
+
+    /**
+     * Строки файлов из поддерева каталога: номер обхода каталога файла попадает в диапазон корня поддерева
+     */
+    private BitSet scopeMask(String scope) {
+        String normalized = scope.trim().replace('\\', '/');
+        return filterMasks.computeIfAbsent("under:" + normalized, k -> {
+            BitSet mask = new BitSet(size);
+            int scopeId = directories.find(normalized);
+            if (scopeId < 0) {
+                return mask;
+            }
+            int from = directories.preOrder(scopeId);
+            int to = directories.postOrder(scopeId);
+            for (int position = 0; position < size; position++) {
+                int pre = directories.preOrder(directoryIds[position]);
+                if (pre >= from && pre <= to) {
+                    mask.set(position);
+                }
+            }
+            return mask;
+        });
+    }
+
+    /**
+     * Считает фасеты по набору строк
+     */
+    public SearchFacets facets(BitSet hits) {
+        int[] extensionCounts = new int[extensions.length];
+        int[] directoryCounts = new int[topDirectories.length];
+        int[] sizeCounts = new int[SIZE_BUCKETS.length];
+        int[] dateCounts = new int[DATE_BUCKETS.length];
+
+        for (int position = hits.nextSetBit(0); position >= 0 && position < size;
+             position = hits.nextSetBit(position + 1)) {
+            extensionCounts[extensionCodes[position]]++;
+            directoryCounts[topDirectoryCodes[position]]++;
+            sizeCounts[sizeBuckets[position]]++;
+            dateCounts[dateBuckets[position]]++;
+        }
+
+        SearchFacets facets = new SearchFacets();
+        facets.put(SearchFacets.EXTENSION, extensions, extensionCounts);
+        facets.put(SearchFacets.DIRECTORY, topDirectories, directoryCounts);
+        facets.put(SearchFacets.SIZE, SIZE_BUCKETS, sizeCounts);
+        facets.put(SearchFacets.DATE, DATE_BUCKETS, dateCounts);
+        return facets;
+    }
+
+    private BitSet mask(String facet, String value, String[] dictionary, int[] codes) {
+        String key = facet + ":" + value.toLowerCase(Locale.ROOT);
+        return filterMasks.computeIfAbsent(key, k -> {
+            BitSet mask = new BitSet(size);
+            for (int code = 0; code < dictionary.length; code++) {
+                if (dictionary[code].equalsIgnoreCase(value)) {
+                    for (int position = 0; position < size; position++) {
+                        if (codes[position] == code) {
+                            mask.set(position);
+                        }
+                    }
+                }
+            }
+            return mask;
+        });
+    }
+
+    private BitSet bucketMask(String facet, String value, String[] labels, byte[] buckets) {
+        String key = facet + ":" + value.toLowerCase(Locale.ROOT);
+        return filterMasks.computeIfAbsent(key, k -> {
+            BitSet mask = new BitSet(size);
+            for (int bucket = 0; bucket < labels.length; bucket++) {
+                if (labels[bucket].equalsIgnoreCase(value)) {
+                    for (int position = 0; position < size; position++) {
+                        if (buckets[position] == bucket) {
+                            mask.set(position);
+                        }
+                    }
+                }
+            }
+            return mask;
+        });
+    }
+
+    private static byte bucketOf(long value, long[] limits) {
+        for (int i = 0; i < limits.length; i++) {
+            if (value < limits[i]) {
+                return (byte) i;
+            }
+        }
+        return (byte) limits.length;
+    }
+
+    /**
+     * Накопитель колонок при чтении таблицы files
+     */
+    private static class Loader {
+        private final long now = System.currentTimeMillis();
+        private final Map<String, Integer> extensionDictionary = new HashMap<>();
+        private final Map<String, Integer> directoryDictionary = new HashMap<>();
+        private final List<String> directories = new ArrayList<>();
+
+        private int size;
+        private long[] ids;
+        private int[] directoryIds;
+        private int[] extensionCodes;
+        private int[] directoryCodes;
+        private byte[] sizeBuckets;
+        private byte[] dateBuckets;
+
+        Loader(int expectedSize) {
+            int capacity = Math.max(16, expectedSize);
+            ids = new long[capacity];
+            directoryIds = new int[capacity];
+            extensionCodes = new int[capacity];
+            directoryCodes = new int[capacity];
+            sizeBuckets = new byte[capacity];
+            dateBuckets = new byte[capacity];
+        }
+
+        void add(long id, int directoryId, String path, long fileSize, long lastModified, String extension) {
+            if (size == ids.length) {
+                int capacity = size + (size >> 1);
+                ids = Arrays.copyOf(ids, capacity);
+                directoryIds = Arrays.copyOf(directoryIds, capacity);
+                extensionCodes = Arrays.copyOf(extensionCodes, capacity);
+                directoryCodes = Arrays.copyOf(directoryCodes, capacity);
+                sizeBuckets = Arrays.copyOf(sizeBuckets, capacity);
+                dateBuckets = Arrays.copyOf(dateBuckets, capacity);
+            }
+
+            String normalizedExtension = extension == null ? "" : extension.toLowerCase(Locale.ROOT);
+            String directory = parentDirectory(path);
+
+            ids[size] = id;
+            directoryIds[size] = directoryId;
+            extensionCodes[size] = extensionDictionary.computeIfAbsent(normalizedExtension, k -> extensionDictionary.size());
+            directoryCodes[size] = directoryDictionary.computeIfAbsent(directory, k -> {
+                directories.add(k);
+                return directories.size() - 1;
+            });
+            sizeBuckets[size] = bucketOf(fileSize, SIZE_LIMITS);
+            dateBuckets[size] = bucketOf(Math.max(0, now - lastModified), AGE_LIMITS);
+            size++;
+        }
+
+        FileMetadataColumns build(DirectoryTable directoryTable) {
+            String[] extensions = new String[extensionDictionary.size()];
+            extensionDictionary.forEach((extension, code) -> extensions[code] = extension);
+
+            // Верхний уровень - первый компонент пути под общим корнем всех проиндексированных директорий
+            int rootDepth = commonPrefixDepth(directories);
+            Map<String, Integer> topDictionary = new HashMap<>();
+            List<String> topDirectories = new ArrayList<>();
+            int[] topByDirectory = new int[directories.size()];
+            for (int i = 0; i < directories.size(); i++) {
+                String[] components = directories.get(i).split("/");
+                String top = components.length > rootDepth ? components[rootDepth] : ROOT_DIRECTORY;
+                topByDirectory[i] = topDictionary.computeIfAbsent(top, k -> {
+                    topDirectories.add(k);
+                    return topDirectories.size() - 1;
+                });
+            }
+
+            int[] topDirectoryCodes = new int[size];
+            for (int position = 0; position < size; position++) {
+                topDirectoryCodes[position] = topByDirectory[directoryCodes[position]];
+            }
+
+            return new FileMetadataColumns(size, ids, directoryIds, directoryTable,
+                    extensionCodes, topDirectoryCodes, sizeBuckets, dateBuckets,
+                    extensions, topDirectories.toArray(new String[0]));
+        }
+
+        private static String parentDirectory(String path) {
+            String normalized = path.replace('\\', '/');
+            int lastSlash = normalized.lastIndexOf('/');
+            return lastSlash > 0 ? normalized.substring(0, lastSlash) : "";
+        }
+
+        private static int commonPrefixDepth(List<String> directories) {
+            if (directories.isEmpty()) {
+                return 0;
+            }
+            String[] prefix = directories.get(0).split("/");
+            int depth = prefix.length;
+            for (String directory : directories) {
+                String[] components = directory.split("/");
+                int common = 0;
+                while (common < depth && common < components.length && components[common].equals(prefix[common])) {
+                    common++;
+                }
+                depth = common;
+            }
+            return depth;
+        }
+    }
+}
@@ -1,33 +1,66 @@
 package ru.gildina.indexer.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.gildina.indexer.extract.ContentSource;
+import ru.gildina.indexer.extract.CostClass;
+import ru.gildina.indexer.extract.ExtractionLimitException;
+import ru.gildina.indexer.extract.ExtractionWatchdog;
+import ru.gildina.indexer.extract.ExtractorRegistry;
+import ru.gildina.indexer.extract.ExternalExtractorPool;
+import ru.gildina.indexer.extract.FileFormat;
+import ru.gildina.indexer.extract.TextExtractor;
 import ru.gildina.indexer.model.FileIndexEntry;
+import ru.gildina.indexer.model.Quarantine;
+import ru.gildina.indexer.model.StoredText;
 import ru.gildina.indexer.monitor.MemoryMonitor;
-import ru.gildina.indexer.util.DocxTextExtractor;
-import ru.gildina.indexer.util.PDFTextExtractor;
+import ru.gildina.indexer.util.AppConfig;
+import ru.gildina.indexer.util.InputSupplier;
 import ru.gildina.indexer.util.PathUtils;
+import ru.gildina.indexer.util.TextAnalyzer;
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 public class FileWalker {
     private static final Logger logger = LoggerFactory.getLogger(FileWalker.class);
+    // Разделитель пути архива и пути члена внутри него
+    public static final String ARCHIVE_SEPARATOR = "!/";
+    private static final String GZIP_EXTENSION = "gz";
 
     private final List<String> supportedExtensions;
     private final AtomicInteger processedFiles = new AtomicInteger(0);
     private final AtomicInteger totalFiles = new AtomicInteger(0);
     private final AtomicInteger skippedFiles = new AtomicInteger(0);
+    // Сохранять сжатый текст файлов для сниппетов в результатах поиска
+    private final TextAnalyzer analyzer = TextAnalyzer.getDefault();
+    private final boolean storeText = AppConfig.getBoolean("indexing.store.text", false);
+    private final int textBlockChars = AppConfig.getInt("indexing.store.text.block.chars", 16384);
+    private final ExtractorRegistry extractors = ExtractorRegistry.createDefault();
+    // Кэш извлеченного текста PDF и DOCX; null - выключен
+    private final ExtractionCache extractionCache = ExtractionCache.fromConfig();
+    // Срок и объем извлечения тяжелых форматов
+    private final ExtractionWatchdog watchdog = ExtractionWatchdog.fromConfig();
+    // Дочерние JVM для тяжелых форматов; null - извлечение в процессе индексатора
+    private final ExternalExtractorPool externalExtractors = ExternalExtractorPool.fromConfig();
+    private final AtomicInteger quarantinedFiles = new AtomicInteger(0);
+    // Файлы, превысившие бюджет извлечения; null - карантин не ведется
+    private Quarantine quarantine;
+    // Архивы, члены которых индексируются как файлы archive.zip!/path; глубина 0 - архивы не читаются
+    private final List<String> archiveExtensions = new ArrayList<>();
+    private final int archiveMaxDepth = AppConfig.getInt("indexing.archive.max.depth", 2);
+    // Бюджет распаковки архива: байтов всего и во сколько раз больше сжатого размера (0 - без ограничения)
+    private final long archiveMaxBytes = AppConfig.getLong("indexing.archive.max.mb", 1024) << 20;
+    private final long archiveMaxRatio = AppConfig.getLong("indexing.archive.max.ratio", 100);
 
     public FileWalker(List<String> supportedExtensions) {
         // Нормализуем расширения - убираем точку если есть и приводим к нижнему регистру
@@ -37,10 +70,38 @@ public class FileWalker {
             this.supportedExtensions.add(normalizedExt.toLowerCase());
         }
 
+        for (String ext : AppConfig.getString("indexing.archive.extensions", "zip,jar").split(",")) {
+            if (!ext.isBlank()) {
+                archiveExtensions.add(ext.trim().toLowerCase());
+            }
+        }
+
+        if (externalExtractors != null) {
+            for (FileFormat format : FileFormat.values()) {
+                TextExtractor extractor = extractors.forFormat(format);
+                if (extractor != null && extractor.getCostClass() == CostClass.HEAVY) {
+                    extractors.register(format, externalExtractors.wrap(extractor));
+                }
+            }
+        }
+
         logger.info("Поддерживаемые расширения: {}", this.supportedExtensions);
     }
 
+    public void setQuarantine(Quarantine quarantine) {
+        this.quarantine = quarantine;
+    }
+
     public List<FileIndexEntry> walkDirectory(String directoryPath) throws IOException {
+        return walkDirectory(directoryPath, null);
+    }
+
+    /**
+     * Обход директории с передачей слов каждого файла в построитель индекса.
+     * Счетчики слов освобождаются сразу после обработки файла
+     */
+    public List<FileIndexEntry> walkDirectory(String directoryPath, SpimiIndexBuilder indexBuilder)
+            throws IOException {
         // Нормализуем путь перед использованием
         Path startDir;
         try {
@@ -60,6 +121,21 @@ public class FileWalker {
         List<FileIndexEntry> fileEntries = new ArrayList<>();
         logger.info("Начинаем обход директории: {}", startDir.toAbsolutePath());
 
+        try {
+            walk(startDir, fileEntries, indexBuilder);
+        } finally {
+            if (externalExtractors != null) {
+                externalExtractors.close();
+            }
+        }
+
+        logger.info("Обход завершен. Обработано {}/{} файлов, пропущено: {}, в карантине: {}",
+                processedFiles.get(), totalFiles.get(), skippedFiles.get(), quarantinedFiles.get());
+        return fileEntries;
+    }
+
+    private void walk(Path startDir, List<FileIndexEntry> fileEntries, SpimiIndexBuilder indexBuilder)
+            throws IOException {
         Files.walkFileTree(startDir, new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
@@ -72,23 +148,14 @@ public class FileWalker {
 
                 logger.debug("Найден файл: {}", file);
 
-                if (isSupportedFile(file)) {
-                    try {
-                        logger.debug("Обрабатываем файл: {}", file);
-                        FileIndexEntry entry = new FileIndexEntry(file, attrs);
-                        processFileContent(file, entry);
-                        fileEntries.add(entry);
-                        processedFiles.incrementAndGet();
-
-                        if (processedFiles.get() % 10 == 0) {
-                            System.out.printf("Обработано: %d/%d файлов. ",
-                                    processedFiles.get(), totalFiles.get());
-                            MemoryMonitor.printHeapInfo();
-                        }
-                    } catch (Exception e) {
-                        logger.error("Ошибка при обработке файла {}: {}", file, e.getMessage());
-                        skippedFiles.incrementAndGet();
-                    }
+                if (archiveMaxDepth > 0 && isArchiveName(fileName)) {
+                    // Сам архив индексируется по имени, его члены - как виртуальные файлы archive.zip!/...
+                    FileIndexEntry archiveEntry = new FileIndexEntry(file, attrs);
+                    addEntry(archiveEntry, null, fileEntries, indexBuilder);
+                    indexArchive(file, attrs.lastModifiedTime().toMillis(), fileEntries, indexBuilder);
+                } else if (isSupportedFile(file)) {
+                    logger.debug("Обрабатываем файл: {}", file);
+                    addEntry(new FileIndexEntry(file, attrs), ContentSource.of(file), fileEntries, indexBuilder);
                 } else {
                     logger.debug("Файл не поддерживается: {}", file);
                     skippedFiles.incrementAndGet();
@@ -103,254 +170,395 @@ public class FileWalker {
                 return FileVisitResult.CONTINUE;
             }
         });
-
-        logger.info("Обход завершен. Обработано {}/{} файлов, пропущено: {}",
-                processedFiles.get(), totalFiles.get(), skippedFiles.get());
-        return fileEntries;
     }
 
 
-    private boolean isSupportedFile(Path file) {
-        // Если список расширений пустой - обрабатываем все файлы
-        if (supportedExtensions.isEmpty()) {
-            return true;
-        }
-
-        String fileName = file.getFileName().toString();
-        int dotIndex = fileName.lastIndexOf('.');
-
-        if (dotIndex > 0 && dotIndex < fileName.length() - 1) {
-            String extension = fileName.substring(dotIndex + 1).toLowerCase();
-            boolean supported = supportedExtensions.contains(extension);
-            if (!supported) {
-                logger.debug("Расширение '{}' не поддерживается для файла: {}", extension, file);
-            }
-            return supported;
-        }
-
-        logger.debug("Файл без расширения: {}", file);
-        return false;
-    }
-
-    public void processFileContent(Path file, FileIndexEntry entry) throws IOException {
+    /**
+     * Обрабатывает содержимое (source = null - только имя) и передает слова в построитель индекса
+     */
+    private void addEntry(FileIndexEntry entry, ContentSource source, List<FileIndexEntry> fileEntries,
+                          SpimiIndexBuilder indexBuilder) {
         try {
-            // Проверяем размер файла
-            long fileSize = Files.size(file);
-            if (fileSize > 50 * 1024 * 1024) { // 50MB
-                logger.warn("Файл слишком большой ({} bytes), пропускаем: {}", fileSize, file);
-                return;
+            if (indexBuilder != null) {
+                entry.useDictionary(indexBuilder.getDictionary());
             }
-
-            if (fileSize == 0) {
-                logger.debug("Пустой файл: {}", file);
-                return;
+            if (storeText) {
+                entry.setStoredText(new StoredText(textBlockChars));
             }
-
-            logger.debug("Чтение файла: {} ({} bytes)", file, fileSize);
-
-            // Обрабатываем разные типы файлов
-            String fileName = file.getFileName().toString().toLowerCase();
-
-            if (fileName.endsWith(".docx") || fileName.endsWith(".docm")) {
-                processDocxFile(file, entry);
-            } else if (fileName.endsWith(".pdf")) {
-                processPdfFile(file, entry);
-            } else {
-                // Текстовые файлы
-                readFileWithFallbackEncoding(file, entry);
+            if (source != null) {
+                processContent(source, entry);
             }
+            fileEntries.add(entry);
+            if (indexBuilder != null) {
+                indexBuilder.append(fileEntries.size() - 1, entry.getTerms());
+                entry.releaseTerms();
+            }
+            processedFiles.incrementAndGet();
 
-            logger.debug("Обработан файл: {}, слов: {}", file, entry.getTotalWords());
-
-        } catch (IOException e) {
-            logger.warn("Не удалось прочитать файл {}: {}", file, e.getMessage());
-            throw e;
+            if (processedFiles.get() % 10 == 0) {
+                System.out.printf("Обработано: %d/%d файлов. ",
+                        processedFiles.get(), totalFiles.get());
+                MemoryMonitor.printHeapInfo();
+            }
         } catch (Exception e) {
-            logger.error("Неожиданная ошибка при обработке файла {}: {}", file, e.getMessage());
-            throw new IOException("Ошибка обработки файла", e);
+            logger.error("Ошибка при обработке файла {}: {}", entry.getPath(), e.getMessage());
+            skippedFiles.incrementAndGet();
         }
     }
 
-    public void processDocxFile(Path file, FileIndexEntry entry) {
-        System.out.println(" Обработка DOCX: " + file.getFileName());
-
-        try {
-            String text = DocxTextExtractor.extractTextFromDocx(file);
-            System.out.println("Извлечено символов: " + (text != null ? text.length() : 0));
-
-            if (text != null && !text.trim().isEmpty()) {
-                processTextContent(text, entry);
-                System.out.println("DOCX обработан: " + entry.getTotalWords() + " слов, " +
-                        entry.getUniqueWords() + " уникальных");
-
-                // Покажем примеры слов
-                if (entry.getTotalWords() > 0) {
-                    System.out.println(" Примеры слов:");
-                    entry.getWordCounts().entrySet().stream()
-                            .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
-                            .limit(5)
-                            .forEach(e -> System.out.println("   - " + e.getKey() + " (" + e.getValue() + ")"));
+    /**
+     * Члены ZIP/JAR архива с диска: читаются через ZipFile без распаковки
+     */
+    private void indexArchive(Path archive, long lastModified, List<FileIndexEntry> fileEntries,
+                              SpimiIndexBuilder indexBuilder) {
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            ArchiveBudget budget = newBudget(null, Files.size(archive));
+            Enumeration<? extends ZipEntry> members = zip.entries();
+            while (members.hasMoreElements()) {
+                ZipEntry member = members.nextElement();
+                if (!member.isDirectory()) {
+                    indexArchiveMember(archive + ARCHIVE_SEPARATOR, member, 1, lastModified,
+                            () -> zip.getInputStream(member), budget, fileEntries, indexBuilder);
                 }
-            } else {
-                System.out.println(" Не удалось извлечь текст из DOCX");
             }
-        } catch (Exception e) {
-            System.out.println("Ошибка при обработке DOCX: " + e.getMessage());
-            e.printStackTrace();
+        } catch (IOException e) {
+            logger.warn("Не удалось прочитать архив {}: {}", archive, e.getMessage());
         }
     }
 
     /**
-     * Альтернативный метод извлечения текста из DOCX
+     * Члены вложенного архива: читаются потоком ZipInputStream из содержимого внешнего члена.
+     * Произвольного доступа нет, поэтому каждый член открывается заново проходом до его заголовка
      */
-    private void tryAlternativeDocxExtraction(Path file, FileIndexEntry entry) {
-        logger.info("Пробуем альтернативный метод извлечения для: {}", file);
-
-        try {
-            // Простая проверка - читаем файл как бинарный и ищем текстовые последовательности
-            byte[] fileContent = Files.readAllBytes(file);
-            String binaryContent = new String(fileContent, java.nio.charset.StandardCharsets.ISO_8859_1);
-
-            // Ищем русские и английские слова в бинарном содержимом
-            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("[a-zA-Zа-яА-Я]{3,}");
-            java.util.regex.Matcher matcher = pattern.matcher(binaryContent);
-
-            int wordCount = 0;
-            while (matcher.find()) {
-                String word = matcher.group().toLowerCase();
-                if (isValidWord(word)) {
-                    entry.addWord(word);
-                    wordCount++;
+    private void indexNestedArchive(String archivePath, InputSupplier archiveContent, int depth, long lastModified,
+                                    ArchiveBudget budget, List<FileIndexEntry> fileEntries,
+                                    SpimiIndexBuilder indexBuilder) {
+        try (ZipInputStream zip = new ZipInputStream(archiveContent.open())) {
+            ZipEntry member;
+            while ((member = zip.getNextEntry()) != null) {
+                if (!member.isDirectory()) {
+                    String memberName = member.getName();
+                    indexArchiveMember(archivePath + ARCHIVE_SEPARATOR, member, depth, lastModified,
+                            () -> openNestedMember(archiveContent, memberName), budget, fileEntries, indexBuilder);
                 }
             }
+        } catch (IOException e) {
+            logger.warn("Не удалось прочитать вложенный архив {}: {}", archivePath, e.getMessage());
+        }
+    }
 
-            if (wordCount > 0) {
-                logger.info(" Альтернативный метод нашел {} слов в: {}", wordCount, file);
-            } else {
-                logger.warn(" Альтернативный метод тоже не нашел слов в: {}", file);
+    private void indexArchiveMember(String prefix, ZipEntry member, int depth, long archiveLastModified,
+                                    InputSupplier content, ArchiveBudget budget, List<FileIndexEntry> fileEntries,
+                                    SpimiIndexBuilder indexBuilder) {
+        totalFiles.incrementAndGet();
+        String memberPath = prefix + member.getName();
+        String memberName = member.getName().substring(member.getName().lastIndexOf('/') + 1);
+        long lastModified = member.getTime() >= 0 ? member.getTime() : archiveLastModified;
+
+        boolean nested = isArchiveName(memberName) && depth < archiveMaxDepth;
+        if (isArchiveName(memberName) && !nested) {
+            logger.debug("Вложенный архив глубже {} не читается: {}", archiveMaxDepth, memberPath);
+        }
+        if (!nested && !isSupportedName(memberName)) {
+            logger.debug("Член архива не поддерживается: {}", memberPath);
+            skippedFiles.incrementAndGet();
+            return;
+        }
+
+        long size = chargeMember(member, content, budget);
+        if (size < 0) {
+            // Содержимое сверх бюджета не читается, член остается доступен для поиска по имени
+            logger.warn("Превышен бюджет распаковки архива, член индексируется только по имени: {}", memberPath);
+            addEntry(virtualEntry(memberPath, memberName, member.getSize(), lastModified),
+                    null, fileEntries, indexBuilder);
+            return;
+        }
+        InputSupplier bounded = () -> new BoundedInputStream(content.open(), size, memberPath);
+        if (nested) {
+            addEntry(virtualEntry(memberPath, memberName, size, lastModified), null, fileEntries, indexBuilder);
+            long compressedSize = member.getCompressedSize() > 0 ? member.getCompressedSize() : size;
+            indexNestedArchive(memberPath, bounded, depth + 1, lastModified, newBudget(budget, compressedSize),
+                    fileEntries, indexBuilder);
+            return;
+        }
+        addEntry(virtualEntry(memberPath, memberName, size, lastModified),
+                ContentSource.member(memberPath, size, bounded), fileEntries, indexBuilder);
+    }
+
+    /**
+     * Размер члена архива, списанный с бюджета, или -1, если член в бюджет не укладывается.
+     * Размер берется из заголовка ZIP; в потоке ZipInputStream он бывает неизвестен до конца члена -
+     * тогда член прочитывается, но не дальше остатка бюджета
+     */
+    private static long chargeMember(ZipEntry member, InputSupplier content, ArchiveBudget budget) {
+        long size = member.getSize();
+        if (size < 0) {
+            long limit = budget.remaining();
+            try (InputStream in = content.open()) {
+                size = 0;
+                byte[] buffer = new byte[8192];
+                int read;
+                while (size <= limit && (read = in.read(buffer)) > 0) {
+                    size += read;
+                }
+            } catch (IOException e) {
+                logger.warn("Не удалось прочитать член архива {}: {}", member.getName(), e.getMessage());
+                return -1;
             }
+        }
+        return budget.charge(size) ? size : -1;
+    }
 
-        } catch (Exception e) {
-            logger.error("Ошибка в альтернативном методе: {}", e.getMessage());
+    private ArchiveBudget newBudget(ArchiveBudget parent, long compressedSize) {
+        long limit = archiveMaxBytes > 0 ? archiveMaxBytes : Long.MAX_VALUE;
+        if (archiveMaxRatio > 0 && compressedSize > 0 && compressedSize < Long.MAX_VALUE / archiveMaxRatio) {
+            limit = Math.min(limit, compressedSize * archiveMaxRatio);
         }
+        return new ArchiveBudget(parent, limit);
     }
 
     /**
-     * Обрабатывает PDF файлы с подробным логированием
+     * Сколько байтов еще можно распаковать из архива. Вложенный архив тратит и свой бюджет,
+     * и бюджеты внешних архивов, так что архив в архиве не обходит ограничение внешнего
      */
-    public void processPdfFile(Path file, FileIndexEntry entry) {
-        logger.info("Начинаем обработку PDF файла: {}", file);
+    private static final class ArchiveBudget {
+        private final ArchiveBudget parent;
+        private long remaining;
 
-        try {
-            String text = PDFTextExtractor.extractTextFromPdf(file);
-            logger.info("Извлеченный текст из PDF: {} символов", text != null ? text.length() : 0);
-
-            if (text != null && !text.trim().isEmpty()) {
-                logger.info("Текст успешно извлечен, начинаем обработку...");
-                processTextContent(text, entry);
-                logger.info("Успешно обработан PDF: {} ({} символов, {} слов)",
-                        file.getFileName(), text.length(), entry.getTotalWords());
-            } else {
-                logger.warn("Не удалось извлечь текст из PDF файла: {}", file);
+        ArchiveBudget(ArchiveBudget parent, long limit) {
+            this.parent = parent;
+            this.remaining = limit;
+        }
+
+        long remaining() {
+            return parent == null ? remaining : Math.min(remaining, parent.remaining());
+        }
+
+        boolean charge(long bytes) {
+            if (bytes > remaining()) {
+                return false;
             }
-        } catch (Exception e) {
-            logger.error("Ошибка при обработке PDF файла {}: {}", file, e.getMessage());
-            e.printStackTrace();
+            for (ArchiveBudget budget = this; budget != null; budget = budget.parent) {
+                budget.remaining -= bytes;
+            }
+            return true;
         }
     }
 
-
     /**
-     * Обрабатывает текстовое содержимое с улучшенной очисткой
+     * Поток члена архива не длиннее списанного с бюджета размера: заголовок ZIP с заниженным
+     * размером не дает распаковать больше
      */
-    private void processTextContent(String text, FileIndexEntry entry) {
-        if (text == null || text.trim().isEmpty()) {
-            return;
+    private static final class BoundedInputStream extends FilterInputStream {
+        private final String name;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long size, String name) {
+            super(in);
+            this.remaining = size;
+            this.name = name;
         }
 
-        // Очистка текста от лишних пробелов и переносов строк
-        text = text.replaceAll("\\s+", " ").trim();
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                consumed(1);
+            }
+            return b;
+        }
 
-        // Ограничиваем длину текста для очень больших файлов
-        if (text.length() > 100000) {
-            text = text.substring(0, 100000);
-            logger.debug("Текст обрезан до 100000 символов для файла");
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, (int) Math.min(length, remaining + 1));
+            if (read > 0) {
+                consumed(read);
+            }
+            return read;
         }
 
-        String[] lines = text.split("\\r?\\n");
-        int totalLines = lines.length;
-        int processedLines = 0;
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining + 1));
+            consumed(skipped);
+            return skipped;
+        }
 
-        for (String line : lines) {
-            processedLines++;
-            if (processedLines % 1000 == 0) {
-                logger.debug("Обработано {}/{} строк", processedLines, totalLines);
+        private void consumed(long bytes) throws IOException {
+            remaining -= bytes;
+            if (remaining < 0) {
+                throw new IOException("Член архива длиннее заявленного размера: " + name);
             }
-            processLine(line, entry);
         }
+    }
 
-        logger.debug("Обработано всего строк: {}", processedLines);
+    private static FileIndexEntry virtualEntry(String path, String name, long size, long lastModified) {
+        int dotIndex = name.lastIndexOf('.');
+        return new FileIndexEntry(path, Math.max(0, size), lastModified,
+                dotIndex > 0 ? name.substring(dotIndex + 1) : "");
     }
-    private void processLine(String line, FileIndexEntry entry) {
-        if (line == null || line.trim().isEmpty()) {
-            return;
+
+    private static InputStream openNestedMember(InputSupplier archiveContent, String memberName) throws IOException {
+        ZipInputStream zip = new ZipInputStream(archiveContent.open());
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.getName().equals(memberName)) {
+                    return zip;
+                }
+            }
+        } catch (IOException e) {
+            zip.close();
+            throw e;
         }
+        zip.close();
+        throw new IOException("Член архива не найден: " + memberName);
+    }
+
+    private boolean isArchiveName(String fileName) {
+        return archiveExtensions.contains(extensionOf(fileName));
+    }
 
-        // Ограничиваем длину обрабатываемой строки
-        if (line.length() > 10000) {
-            line = line.substring(0, 10000);
+    private boolean isSupportedName(String fileName) {
+        if (supportedExtensions.isEmpty()) {
+            return true;
         }
+        String extension = extensionOf(fileName);
+        if (extension.equals(GZIP_EXTENSION) && !supportedExtensions.contains(extension)) {
+            // app.log.gz поддерживается, если поддерживается app.log
+            extension = extensionOf(fileName.substring(0, fileName.length() - GZIP_EXTENSION.length() - 1));
+        }
+        return !extension.isEmpty() && supportedExtensions.contains(extension);
+    }
 
-        // Улучшенное разбиение на слова - поддерживает русский, английский и специальные символы
-        String[] words = line.split("[^a-zA-Zа-яА-Я0-9_-]+");
+    private static String extensionOf(String fileName) {
+        int dotIndex = fileName.lastIndexOf('.');
+        return dotIndex > 0 && dotIndex < fileName.length() - 1
+                ? fileName.substring(dotIndex + 1).toLowerCase() : "";
+    }
 
-        for (String word : words) {
-            String cleanedWord = word.trim().toLowerCase();
+    private boolean isSupportedFile(Path file) {
+        boolean supported = isSupportedName(file.getFileName().toString());
+        if (!supported) {
+            logger.debug("Расширение не поддерживается для файла: {}", file);
+        }
+        return supported;
+    }
+
+    public void processFileContent(Path file, FileIndexEntry entry) throws IOException {
+        processContent(ContentSource.of(file), entry);
+    }
+
+    private void processContent(ContentSource source, FileIndexEntry entry) throws IOException {
+        String file = source.getName();
+        try {
+            // Размер файла не ограничивается: текст читается потоком и ограничен бюджетом символов
+            long fileSize = source.getSize() >= 0 ? source.getSize() : entry.getSize();
+            if (fileSize == 0) {
+                logger.debug("Пустой файл: {}", file);
+                return;
+            }
+
+            logger.debug("Чтение файла: {} ({} bytes)", file, fileSize);
 
-            // Фильтруем короткие слова, числа и шум
-            if (isValidWord(cleanedWord)) {
-                entry.addWord(cleanedWord);
+            if (quarantine != null) {
+                String reason = quarantine.check(entry.getPath(), entry.getSize(), entry.getLastModifiedTime());
+                if (reason != null) {
+                    logger.info("Файл в карантине ({}), содержимое не разбирается: {}", reason, file);
+                    quarantinedFiles.incrementAndGet();
+                    return;
+                }
+            }
+
+            // Извлекатель выбирается по сигнатуре содержимого, а не по расширению
+            FileFormat format = extractors.sniff(source);
+            if (format == FileFormat.GZIP) {
+                // Сжатый файл распаковывается потоком на каждом чтении, формат определяется по распакованному
+                source = ContentSource.gunzip(source);
+                format = extractors.sniff(source);
             }
+            TextExtractor extractor = extractors.forFormat(format);
+            if (extractor == null) {
+                logger.debug("Содержимое формата {} не индексируется: {}", format, file);
+                return;
+            }
+            extractText(source, extractor, entry);
+
+            logger.debug("Обработан файл: {}, слов: {}", file, entry.getTotalWords());
+
+        } catch (IOException e) {
+            logger.warn("Не удалось прочитать файл {}: {}", file, e.getMessage());
+            throw e;
+        } catch (Exception e) {
+            logger.error("Неожиданная ошибка при обработке файла {}: {}", file, e.getMessage());
+            throw new IOException("Ошибка обработки файла", e);
         }
     }
 
     /**
-     * Проверяет, является ли слово валидным для индексации
+     * Извлекает текст файла в entry. Тяжелые форматы берутся из кэша извлечения, а их ошибки
+     * не исключают файл из индекса - он остается доступен для поиска по имени
      */
-    private boolean isValidWord(String word) {
-        if (word.isEmpty() || word.length() < 2) {
-            return false;
+    private void extractText(ContentSource source, TextExtractor extractor, FileIndexEntry entry) throws IOException {
+        String file = source.getName();
+        if (extractor.getCostClass() == CostClass.LIGHT) {
+            extractor.extract(source, line -> processLine(line, entry));
+            return;
         }
 
-        // Исключаем числа
-        if (word.matches("\\d+")) {
-            return false;
+        try {
+            extractCached(source, extractor, entry);
+            if (entry.getTotalWords() > 0) {
+                logger.debug("Обработан {}: {} ({} слов)", extractor.getName(), file, entry.getTotalWords());
+            } else {
+                logger.warn("Не удалось извлечь текст ({}): {}", extractor.getName(), file);
+            }
+        } catch (ExtractionLimitException e) {
+            // Частично извлеченный текст не индексируется, файл остается доступен по имени
+            entry.resetContent();
+            quarantinedFiles.incrementAndGet();
+            logger.warn("Файл помещен в карантин: {} - {}", file, e.getMessage());
+            if (quarantine != null) {
+                quarantine.add(entry.getPath(), entry.getSize(), entry.getLastModifiedTime(), e.getMessage());
+            }
+        } catch (IOException e) {
+            logger.warn("Ошибка извлечения текста ({}) {}: {}", extractor.getName(), file, e.getMessage());
         }
+    }
 
-        // Исключаем common noise слова
-        String[] noiseWords = {
-                "nbsp", "amp", "lt", "gt", "quot", "apos",
-                "http", "https", "www", "com", "org", "net",
-                "xml", "html", "body", "div", "span", "class"
-        };
-
-        for (String noise : noiseWords) {
-            if (word.equals(noise)) {
-                return false;
-            }
+    /**
+     * Строки извлеченного текста - из кэша, если файл с таким содержимым уже извлекался
+     */
+    private void extractCached(ContentSource source, TextExtractor extractor, FileIndexEntry entry) throws IOException {
+        if (extractionCache == null) {
+            watchdog.extract(source, extractor, line -> processLine(line, entry));
+            return;
+        }
+        if (extractionCache.extract(source, extractor, sink -> watchdog.extract(source, extractor, sink),
+                entry::resetContent, line -> processLine(line, entry))) {
+            logger.debug("Текст {} взят из кэша извлечения", source.getName());
         }
+    }
 
-        // Исключаем слишком длинные "слова" (вероятно, ошибки)
-        if (word.length() > 50) {
-            return false;
+    private void processLine(String line, FileIndexEntry entry) {
+        if (line == null || line.trim().isEmpty()) {
+            return;
         }
 
-        // Исключаем слова только из повторяющихся символов
-        if (word.matches("(.)\\1{2,}")) { // aaaa, bbbb, etc
-            return false;
+        int textBlock = -1;
+        if (entry.getStoredText() != null) {
+            textBlock = entry.getStoredText().append(line.replaceAll("\\s+", " ").trim());
         }
 
-        return true;
+        // Разбиение на слова, нормализация, стоп-слова и стемминг - общая цепочка с поиском
+        final int block = textBlock;
+        analyzer.analyze(line, word -> {
+            if (block >= 0) {
+                entry.addWordInBlock(word, block);
+            } else {
+                entry.addWord(word);
+            }
+        });
     }
 
     /**
@@ -369,78 +577,6 @@ public class FileWalker {
                 word.equals("amp") ||
                 word.length() > 50; // Слишком длинные "слова"
     }
-    private void processLargeFile(Path file, FileIndexEntry entry) throws IOException {
-        // Для больших файлов читаем построчно с ограничением
-        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-            String line;
-            int lineCount = 0;
-            int maxLines = 10000; // Ограничиваем количество строк
-
-            while ((line = reader.readLine()) != null && lineCount < maxLines) {
-                processLine(line, entry);
-                lineCount++;
-
-                // Периодически вызываем GC для больших файлов
-                if (lineCount % 1000 == 0) {
-                    System.gc();
-                }
-            }
-
-            if (lineCount >= maxLines) {
-                logger.warn("Файл {} слишком большой, обработано только первых {} строк", file, maxLines);
-            }
-        } catch (IOException e) {
-            // Пробуем другие кодировки
-            readFileWithFallbackEncoding(file, entry);
-        }
-    }
-
-    private void readFileWithFallbackEncoding(Path file, FileIndexEntry entry) throws IOException {
-        Charset[] charsetsToTry = {
-                StandardCharsets.UTF_8,
-                Charset.forName("Windows-1251"),
-                Charset.forName("KOI8-R"),
-                StandardCharsets.ISO_8859_1
-        };
-
-        for (Charset charset : charsetsToTry) {
-            try {
-                readFileWithCharset(file, entry, charset);
-                logger.debug("Файл {} успешно прочитан в кодировке {}", file, charset);
-                return; // Успешно прочитали
-            } catch (IOException e) {
-                logger.debug("Не удалось прочитать файл {} в кодировке {}: {}",
-                        file, charset, e.getMessage());
-                // Пробуем следующую кодировку
-            }
-        }
-
-        // Если все кодировки не подошли, пробуем бинарное чтение для текстовых файлов
-        logger.warn("Не удалось прочитать файл {} ни в одной кодировке, пробуем бинарное чтение", file);
-        readFileAsBinary(file, entry);
-    }
-
-    private void readFileWithCharset(Path file, FileIndexEntry entry, Charset charset) throws IOException {
-        try (BufferedReader reader = Files.newBufferedReader(file, charset)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                processLine(line, entry);
-            }
-        }
-    }
-
-    private void readFileAsBinary(Path file, FileIndexEntry entry) throws IOException {
-        try (InputStream is = Files.newInputStream(file);
-             InputStreamReader isr = new InputStreamReader(is, StandardCharsets.UTF_8);
-             BufferedReader reader = new BufferedReader(isr)) {
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                processLine(line, entry);
-            }
-        }
-    }
-
 
     public int getProcessedFilesCount() {
         return processedFiles.get();
@@ -453,4 +589,8 @@ public class FileWalker {
     public int getSkippedFilesCount() {
         return skippedFiles.get();
     }
+
+    public int getQuarantinedFilesCount() {
+        return quarantinedFiles.get();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package ru.gildina.indexer.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ограниченный LRU кэш, привязанный к поколению индекса.
+ * Любая зафиксированная запись в индекс увеличивает поколение, и при первом
+ * обращении с новым поколением кэш целиком сбрасывается.
+ */
+public class QueryCache<K, V> {
+    private final String name;
+    private final int maxEntries;
+    private final Map<K, V> entries;
+
+    private long generation = -1;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public QueryCache(String name, int maxEntries) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > QueryCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized V get(K key, long currentGeneration) {
+        syncGeneration(currentGeneration);
+        V value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    public synchronized void put(K key, V value, long currentGeneration) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        syncGeneration(currentGeneration);
+        entries.put(key, value);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private void syncGeneration(long currentGeneration) {
+        if (generation != currentGeneration) {
+            if (!entries.isEmpty()) {
+                invalidations++;
+            }
+            entries.clear();
+            generation = currentGeneration;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0.0 : (double) hits / requests;
+    }
+
+    /**
+     * Возвращает статистику кэша в читаемом виде
+     */
+    public synchronized String getStats() {
+        return String.format("%s: %d/%d записей, попаданий %d, промахов %d (%.1f%%), вытеснено %d, сбросов %d",
+                name, entries.size(), maxEntries, hits, misses, getHitRate() * 100,
+                evictions, invalidations);
+    }
+}
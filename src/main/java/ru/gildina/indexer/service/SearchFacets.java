@@ -0,0 +1,58 @@
+package ru.gildina.indexer.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Количество найденных файлов по значениям каждого фасета, по убыванию количества
+ */
+public class SearchFacets {
+    public static final String EXTENSION = "ext";
+    public static final String DIRECTORY = "dir";
+    public static final String SIZE = "size";
+    public static final String DATE = "date";
+
+    private final Map<String, Map<String, Integer>> facets = new LinkedHashMap<>();
+
+    void put(String facet, String[] values, int[] counts) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            if (counts[i] > 0) {
+                order.add(i);
+            }
+        }
+        order.sort((a, b) -> Integer.compare(counts[b], counts[a]));
+
+        Map<String, Integer> valueCounts = new LinkedHashMap<>();
+        for (int i : order) {
+            valueCounts.put(values[i], counts[i]);
+        }
+        facets.put(facet, valueCounts);
+    }
+
+    public Map<String, Integer> get(String facet) {
+        return facets.getOrDefault(facet, Map.of());
+    }
+
+    public Map<String, Map<String, Integer>> asMap() {
+        return facets;
+    }
+
+    public void print() {
+        System.out.println("Фасеты (фильтр: ключ=значение):");
+        for (Map.Entry<String, Map<String, Integer>> facet : facets.entrySet()) {
+            StringBuilder line = new StringBuilder("   ").append(facet.getKey()).append(": ");
+            int shown = 0;
+            for (Map.Entry<String, Integer> value : facet.getValue().entrySet()) {
+                if (shown++ == 10) {
+                    line.append("...");
+                    break;
+                }
+                line.append(value.getKey()).append(" (").append(value.getValue()).append(")  ");
+            }
+            System.out.println(line.toString().trim());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package ru.gildina.indexer.service;
+
+import java.util.Objects;
+
+/**
+ * Параметры поиска. Входят в ключ кэша запросов, поэтому объект неизменяемый:
+ * методы with* возвращают новый экземпляр.
+ */
+public class SearchOptions {
+    public static final SearchOptions DEFAULT = new SearchOptions(0);
+
+    // Максимальное количество результатов, 0 - без ограничения
+    private final int limit;
+    // Считать распределение результатов по фасетам
+    private final boolean facets;
+    // Фильтры по фасетам, null - без фильтра
+    private final String extension;
+    private final String topDirectory;
+    private final String sizeBucket;
+    private final String dateBucket;
+    // Поиск только в поддереве каталога (путь каталога), null - везде
+    private final String scope;
+
+    public SearchOptions(int limit) {
+        this(limit, false, null, null, null, null, null);
+    }
+
+    private SearchOptions(int limit, boolean facets, String extension, String topDirectory,
+                          String sizeBucket, String dateBucket, String scope) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Лимит результатов не может быть отрицательным: " + limit);
+        }
+        this.limit = limit;
+        this.facets = facets;
+        this.extension = extension;
+        this.topDirectory = topDirectory;
+        this.sizeBucket = sizeBucket;
+        this.dateBucket = dateBucket;
+        this.scope = scope;
+    }
+
+    public SearchOptions withFacets(boolean facets) {
+        return new SearchOptions(limit, facets, extension, topDirectory, sizeBucket, dateBucket, scope);
+    }
+
+    public SearchOptions withExtension(String extension) {
+        return new SearchOptions(limit, facets, extension, topDirectory, sizeBucket, dateBucket, scope);
+    }
+
+    public SearchOptions withTopDirectory(String topDirectory) {
+        return new SearchOptions(limit, facets, extension, topDirectory, sizeBucket, dateBucket, scope);
+    }
+
+    public SearchOptions withSizeBucket(String sizeBucket) {
+        return new SearchOptions(limit, facets, extension, topDirectory, sizeBucket, dateBucket, scope);
+    }
+
+    public SearchOptions withDateBucket(String dateBucket) {
+        return new SearchOptions(limit, facets, extension, topDirectory, sizeBucket, dateBucket, scope);
+    }
+
+    public SearchOptions withScope(String scope) {
+        return new SearchOptions(limit, facets, extension, topDirectory, sizeBucket, dateBucket, scope);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean hasLimit() {
+        return limit > 0;
+    }
+
+    public boolean isFacets() {
+        return facets;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getTopDirectory() {
+        return topDirectory;
+    }
+
+    public String getSizeBucket() {
+        return sizeBucket;
+    }
+
+    public String getDateBucket() {
+        return dateBucket;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public boolean hasFilters() {
+        return extension != null || topDirectory != null || sizeBucket != null || dateBucket != null
+                || scope != null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SearchOptions that = (SearchOptions) o;
+        return limit == that.limit
+                && facets == that.facets
+                && Objects.equals(extension, that.extension)
+                && Objects.equals(topDirectory, that.topDirectory)
+                && Objects.equals(sizeBucket, that.sizeBucket)
+                && Objects.equals(dateBucket, that.dateBucket)
+                && Objects.equals(scope, that.scope);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(limit, facets, extension, topDirectory, sizeBucket, dateBucket, scope);
+    }
+
+    @Override
+    public String toString() {
+        return "SearchOptions{" +
+                "limit=" + limit +
+                ", facets=" + facets +
+                ", extension=" + extension +
+                ", topDirectory=" + topDirectory +
+                ", sizeBucket=" + sizeBucket +
+                ", dateBucket=" + dateBucket +
+                ", scope=" + scope +
+                '}';
+    }
+}
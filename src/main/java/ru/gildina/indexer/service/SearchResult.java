@@ -0,0 +1,53 @@
+package ru.gildina.indexer.service;
+
+import ru.gildina.indexer.model.FileIndexEntry;
+
+import java.util.List;
+
+/**
+ * Результат поиска: показанные файлы, общее количество совпадений и фасеты (если запрошены).
+ * Top-K поиск не перебирает все совпадения; тогда известно только, что их больше показанных
+ */
+public class SearchResult {
+    private final List<FileIndexEntry> hits;
+    private final int totalHits;
+    private final boolean moreHits;
+    private final SearchFacets facets;
+
+    public SearchResult(List<FileIndexEntry> hits, int totalHits, SearchFacets facets) {
+        this(hits, totalHits, false, facets);
+    }
+
+    /**
+     * @param moreHits совпадений больше totalHits, точное число не подсчитано
+     */
+    public SearchResult(List<FileIndexEntry> hits, int totalHits, boolean moreHits, SearchFacets facets) {
+        this.hits = hits;
+        this.totalHits = totalHits;
+        this.moreHits = moreHits;
+        this.facets = facets;
+    }
+
+    public List<FileIndexEntry> getHits() {
+        return hits;
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    public boolean hasMoreHits() {
+        return moreHits;
+    }
+
+    /**
+     * Количество совпадений для вывода: "20+", если точное число не подсчитано
+     */
+    public String getTotalHitsText() {
+        return moreHits ? totalHits + "+" : String.valueOf(totalHits);
+    }
+
+    public SearchFacets getFacets() {
+        return facets;
+    }
+}
@@ -3,34 +3,191 @@ package ru.gildina.indexer.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.gildina.indexer.database.DatabaseManager;
+import ru.gildina.indexer.database.TermStats;
 import ru.gildina.indexer.model.FileIndexEntry;
+import ru.gildina.indexer.util.AppConfig;
+import ru.gildina.indexer.util.BloomFilter;
+import ru.gildina.indexer.util.TextAnalyzer;
+import ru.gildina.indexer.util.TextCompressor;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
 
 public class SearchService {
     private static final Logger logger = LoggerFactory.getLogger(SearchService.class);
     private final DatabaseManager databaseManager;
+    private final QueryCache<QueryKey, SearchResult> resultCache;
+    private final QueryCache<String, TermStats> termCache;
+    private final SnippetBuilder snippetBuilder = new SnippetBuilder(AppConfig.getInt("search.snippet.context.chars", 80));
+    private FileMetadataColumns metadataColumns;
+    private long metadataGeneration = -1;
+    // Фильтры Блума словаря индекса: отсутствующие слова отсекаются без обращения к базе
+    private List<BloomFilter> termFilters;
+    private long termFiltersGeneration = -1;
+    private final AtomicLong bloomRejections = new AtomicLong();
 
     public SearchService(DatabaseManager databaseManager) {
         this.databaseManager = databaseManager;
+        this.resultCache = new QueryCache<>("Кэш результатов",
+                AppConfig.getInt("search.cache.max.entries", 256));
+        this.termCache = new QueryCache<>("Кэш слов",
+                AppConfig.getInt("search.cache.max.terms", 4096));
     }
 
     public List<FileIndexEntry> search(String query, SearchType searchType) {
+        return search(query, searchType, SearchOptions.DEFAULT);
+    }
+
+    public List<FileIndexEntry> search(String query, SearchType searchType, SearchOptions options) {
+        return searchWithFacets(query, searchType, options).getHits();
+    }
+
+    /**
+     * Поиск с фильтрами по фасетам и подсчетом фасетов по всему набору совпадений
+     */
+    public SearchResult searchWithFacets(String query, SearchType searchType, SearchOptions options) {
+        QueryKey key = new QueryKey(normalizeQuery(query), searchType, options);
+        long generation = databaseManager.getIndexGeneration();
+
+        SearchResult cached = resultCache.get(key, generation);
+        if (cached != null) {
+            logger.debug("Результат запроса '{}' взят из кэша", query);
+            return copyOf(cached);
+        }
+
         try {
-            switch (searchType) {
-                case FILE_NAME:
-                    return databaseManager.searchByFileName(query);
-                case CONTENT:
-                    return databaseManager.searchByContent(query);
-                default:
-                    throw new IllegalArgumentException("Неизвестный тип поиска: " + searchType);
-            }
+            SearchResult result = executeSearch(key.query(), searchType, options, generation);
+            resultCache.put(key, result, generation);
+            return copyOf(result);
         } catch (SQLException e) {
             logger.error("Ошибка при поиске: {}", e.getMessage());
             throw new RuntimeException("Ошибка поиска в базе данных", e);
         }
     }
+
+    private SearchResult executeSearch(String query, SearchType searchType, SearchOptions options, long generation)
+            throws SQLException {
+        if (searchType == SearchType.CONTENT && options.hasLimit()) {
+            List<TermStats> terms = presentTerms(query, generation);
+            if (terms.isEmpty()) {
+                return new SearchResult(new ArrayList<>(), 0, null);
+            }
+            FileMetadataColumns columns = columnsFor(options, generation);
+            BitSet filter = columns != null ? columns.filter(options) : null;
+            LongPredicate accept = filter == null ? null : id -> columns.contains(filter, id);
+            // Лишний файл сверх лимита показывает, что совпадений больше показанных
+            List<FileIndexEntry> hits = databaseManager.searchByContentTopK(terms, options.getLimit() + 1, accept);
+            boolean moreHits = hits.size() > options.getLimit();
+            if (moreHits) {
+                hits = new ArrayList<>(hits.subList(0, options.getLimit()));
+            }
+            if (!options.isFacets()) {
+                return new SearchResult(hits, hits.size(), moreHits, null);
+            }
+            // Фасеты и общее число совпадений - по всем файлам со словами запроса, а не только по top-K
+            BitSet matches = columns.positionsOfIds(databaseManager.matchingFileIds(terms));
+            if (filter != null) {
+                matches.and(filter);
+            }
+            return new SearchResult(hits, Math.max(hits.size(), matches.cardinality()), columns.facets(matches));
+        }
+
+        List<FileIndexEntry> hits;
+        SearchOptions remaining = options;
+        switch (searchType) {
+            case FILE_NAME:
+                // Поддерево каталога отбирается в SQL, остальные фильтры - по колонкам метаданных
+                hits = databaseManager.searchByFileName(query, options.getScope());
+                remaining = options.withScope(null);
+                break;
+            case CONTENT:
+                // Слова запроса анализируются так же, как текст при индексации: в индексе - их основы
+                Set<String> terms = extractQueryTerms(query);
+                if (terms.isEmpty()) {
+                    logger.info("В запросе '{}' нет слов для поиска", query);
+                }
+                hits = databaseManager.searchByContent(terms);
+                break;
+            default:
+                throw new IllegalArgumentException("Неизвестный тип поиска: " + searchType);
+        }
+
+        FileMetadataColumns columns = columnsFor(remaining, generation);
+        BitSet filter = columns != null ? columns.filter(remaining) : null;
+        if (filter != null) {
+            hits.removeIf(entry -> entry.getId() == null || !columns.contains(filter, entry.getId()));
+        }
+        SearchFacets facets = options.isFacets() ? columns.facets(columns.positionsOf(hits)) : null;
+        int totalHits = hits.size();
+        if (options.hasLimit() && hits.size() > options.getLimit()) {
+            hits = new ArrayList<>(hits.subList(0, options.getLimit()));
+        }
+        return new SearchResult(hits, totalHits, facets);
+    }
+
+    /**
+     * Фильтры Блума, перечитываемые после каждой записи в индекс
+     */
+    private synchronized List<BloomFilter> getTermFilters(long generation) throws SQLException {
+        if (termFilters == null || termFiltersGeneration != generation) {
+            termFilters = databaseManager.loadTermBloomFilters();
+            termFiltersGeneration = generation;
+            logger.debug("Загружено фильтров Блума: {}", termFilters.size());
+        }
+        return termFilters;
+    }
+
+    private static boolean mightBeIndexed(List<BloomFilter> filters, String word) {
+        for (BloomFilter filter : filters) {
+            if (filter.mightContain(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Колонки метаданных нужны только для фасетов и фильтров; null, если не запрошены ни те, ни другие
+     */
+    private FileMetadataColumns columnsFor(SearchOptions options, long generation) throws SQLException {
+        return options.isFacets() || options.hasFilters() ? getMetadataColumns(generation) : null;
+    }
+
+    /**
+     * Колонки метаданных, перечитываемые после каждой записи в индекс
+     */
+    private synchronized FileMetadataColumns getMetadataColumns(long generation) throws SQLException {
+        if (metadataColumns == null || metadataGeneration != generation) {
+            long start = System.currentTimeMillis();
+            metadataColumns = FileMetadataColumns.load(databaseManager);
+            metadataGeneration = generation;
+            logger.info("Загружены метаданные {} файлов за {} мс",
+                    metadataColumns.size(), System.currentTimeMillis() - start);
+        }
+        return metadataColumns;
+    }
+
+    /**
+     * Результат с копиями записей: записи из кэша не отдаются наружу, поэтому загрузка слов
+     * или другие изменения у вызывающего кода не попадают в следующие ответы из кэша
+     */
+    private static SearchResult copyOf(SearchResult result) {
+        List<FileIndexEntry> hits = new ArrayList<>(result.getHits().size());
+        for (FileIndexEntry hit : result.getHits()) {
+            hits.add(hit.copy());
+        }
+        return new SearchResult(hits, result.getTotalHits(), result.hasMoreHits(), result.getFacets());
+    }
+
     /**
      * Загружает слова для файла из базы данных
      */
@@ -42,16 +199,53 @@ public class SearchService {
             throw new RuntimeException("Ошибка загрузки слов", e);
         }
     }
+    /**
+     * Фрагмент сохраненного текста файла вокруг слов запроса.
+     * Распаковывается только блок с первым вхождением, сам файл не читается.
+     * Возвращает null, если текст файла не сохранялся или слов в нем нет.
+     */
+    public String getSnippet(FileIndexEntry entry, String query) {
+        if (entry.getId() == null) {
+            return null;
+        }
+
+        Set<String> terms = extractQueryTerms(query);
+        try {
+            int blockNo = databaseManager.findFirstTextBlock(entry.getId(), terms);
+            if (blockNo < 0) {
+                return null;
+            }
+            byte[] block = databaseManager.loadTextBlock(entry.getId(), blockNo);
+            return block != null ? snippetBuilder.build(TextCompressor.decompress(block), terms) : null;
+        } catch (SQLException | IllegalArgumentException e) {
+            logger.warn("Не удалось построить фрагмент для {}: {}", entry.getPath(), e.getMessage());
+            return null;
+        }
+    }
+
     public void printSearchResultsWithTime(List<FileIndexEntry> results, String query, SearchType searchType) {
+        printSearchResultsWithTime(new SearchResult(results, results.size(), null), query, searchType);
+    }
+
+    /**
+     * Вывод результата с общим числом совпадений: если показаны не все, пишется и сколько показано
+     */
+    public void printSearchResultsWithTime(SearchResult result, String query, SearchType searchType) {
+        List<FileIndexEntry> results = result.getHits();
         if (results.isEmpty()) {
             System.out.println("По запросу '" + query + "' ничего не найдено.");
             return;
         }
 
         System.out.println("\n=== Результаты поиска: '" + query + "' ===");
-        System.out.println("Найдено файлов: " + results.size());
+        if (result.hasMoreHits() || result.getTotalHits() > results.size()) {
+            System.out.println("Найдено файлов: " + result.getTotalHitsText() + ", показано: " + results.size());
+        } else {
+            System.out.println("Найдено файлов: " + results.size());
+        }
         System.out.println("----------------------------------------");
 
+        Set<String> terms = searchType == SearchType.CONTENT ? extractQueryTerms(query) : Set.of();
         for (int i = 0; i < results.size(); i++) {
             FileIndexEntry entry = results.get(i);
             System.out.printf("%d. %s\n", i + 1, entry.getFileName());
@@ -60,11 +254,20 @@ public class SearchService {
             System.out.printf("   Изменен: %s\n", entry.getShortLastModified());
             System.out.printf("   Расширение: %s\n", entry.getExtension());
 
-            // Для поиска по содержимому
-            if (searchType == SearchType.CONTENT && entry.containsWord(query.toLowerCase())) {
-                int count = entry.getWordCount(query.toLowerCase());
+            // Для поиска по содержимому - вхождения слов запроса после анализа
+            int count = 0;
+            for (String term : terms) {
+                count += entry.getWordCount(term);
+            }
+            if (count > 0) {
                 System.out.printf("   Релевантность: найдено %d совпадений\n", count);
             }
+            if (searchType == SearchType.CONTENT) {
+                String snippet = getSnippet(entry, query);
+                if (snippet != null) {
+                    System.out.printf("   Фрагмент: %s\n", snippet);
+                }
+            }
             System.out.println();
         }
     }
@@ -118,6 +321,83 @@ public class SearchService {
     }
 
 
+    /**
+     * Слова запроса, которые есть в индексе
+     */
+    private List<TermStats> presentTerms(String query, long generation) throws SQLException {
+        List<TermStats> terms = new ArrayList<>();
+        for (TermStats stats : lookupTerms(extractQueryTerms(query), generation)) {
+            if (stats.getDocFreq() > 0) {
+                terms.add(stats);
+            }
+        }
+        if (terms.isEmpty()) {
+            logger.info("Ни одного слова запроса '{}' нет в индексе", query);
+        }
+        return terms;
+    }
+
+    /**
+     * Статистика слов с кэшированием; отсутствующие в индексе слова кэшируются с docFreq = 0
+     */
+    private List<TermStats> lookupTerms(Set<String> words, long generation) throws SQLException {
+        List<TermStats> result = new ArrayList<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String word : words) {
+            TermStats cached = termCache.get(word, generation);
+            if (cached != null) {
+                result.add(cached);
+            } else {
+                missing.add(word);
+            }
+        }
+
+        List<BloomFilter> filters = getTermFilters(generation);
+        for (Iterator<String> it = missing.iterator(); it.hasNext(); ) {
+            String word = it.next();
+            if (!mightBeIndexed(filters, word)) {
+                bloomRejections.incrementAndGet();
+                result.add(new TermStats(word, 0, 0));
+                it.remove();
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Map<String, TermStats> loaded = databaseManager.getTermStats(missing);
+            for (String word : missing) {
+                TermStats stats = loaded.getOrDefault(word, new TermStats(word, 0, 0));
+                termCache.put(word, stats, generation);
+                result.add(stats);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Пропускает запрос через ту же цепочку анализа, что и строки файла при индексации
+     */
+    public static Set<String> extractQueryTerms(String query) {
+        return TextAnalyzer.getDefault().analyzeToSet(query);
+    }
+
+    /**
+     * Статистика кэша запросов
+     */
+    public String getCacheStats() {
+        return resultCache.getStats() + "\n" + termCache.getStats()
+                + "\nОтсеяно фильтром Блума слов: " + bloomRejections.get();
+    }
+
+    /**
+     * Приводит запрос к каноническому виду для ключа кэша: регистр и лишние пробелы не важны
+     */
+    private static String normalizeQuery(String query) {
+        return query == null ? "" : query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private record QueryKey(String query, SearchType searchType, SearchOptions options) {
+    }
+
     public enum SearchType {
         FILE_NAME,
         CONTENT
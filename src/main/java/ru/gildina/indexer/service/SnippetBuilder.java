@@ -0,0 +1,94 @@
+package ru.gildina.indexer.service;
+
+import ru.gildina.indexer.util.TextAnalyzer;
+
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Строит фрагмент текста вокруг первого найденного слова запроса и подсвечивает
+ * в нем все слова запроса квадратными скобками
+ */
+public class SnippetBuilder {
+    // Те же границы слов, что и при индексации в FileWalker
+    private static final Pattern TOKEN = TextAnalyzer.TOKEN;
+    private static final int MAX_WORD_EXPANSION = 30;
+
+    private final int contextChars;
+    private final TextAnalyzer analyzer;
+
+    public SnippetBuilder(int contextChars) {
+        this(contextChars, TextAnalyzer.getDefault());
+    }
+
+    public SnippetBuilder(int contextChars, TextAnalyzer analyzer) {
+        this.contextChars = contextChars;
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Возвращает фрагмент или null, если ни одного слова запроса в тексте нет
+     */
+    public String build(String text, Set<String> terms) {
+        Matcher matcher = TOKEN.matcher(text);
+        int matchStart = -1;
+        int matchEnd = -1;
+        while (matcher.find()) {
+            if (isQueryTerm(matcher.group(), terms)) {
+                matchStart = matcher.start();
+                matchEnd = matcher.end();
+                break;
+            }
+        }
+        if (matchStart < 0) {
+            return null;
+        }
+
+        int from = expandLeft(text, Math.max(0, matchStart - contextChars));
+        int to = expandRight(text, Math.min(text.length(), matchEnd + contextChars));
+
+        StringBuilder snippet = new StringBuilder();
+        if (from > 0) {
+            snippet.append("...");
+        }
+        int last = from;
+        matcher.region(from, to);
+        while (matcher.find()) {
+            if (isQueryTerm(matcher.group(), terms)) {
+                snippet.append(text, last, matcher.start())
+                        .append('[').append(matcher.group()).append(']');
+                last = matcher.end();
+            }
+        }
+        snippet.append(text, last, to);
+        if (to < text.length()) {
+            snippet.append("...");
+        }
+        return snippet.toString().trim();
+    }
+
+    // Слова запроса уже прошли анализатор - сравниваем с нормализованной формой слова текста,
+    // чтобы подсветить и другие словоформы: "договоров" для запроса "договор"
+    private boolean isQueryTerm(String token, Set<String> terms) {
+        String term = analyzer.normalize(token);
+        return term != null && terms.contains(term);
+    }
+
+    // Не разрываем слово на границе фрагмента, но и не растягиваем фрагмент на текст без пробелов
+    private static int expandLeft(String text, int index) {
+        int limit = Math.max(0, index - MAX_WORD_EXPANSION);
+        while (index > limit && !Character.isWhitespace(text.charAt(index - 1))) {
+            index--;
+        }
+        return index;
+    }
+
+    private static int expandRight(String text, int index) {
+        int limit = Math.min(text.length(), index + MAX_WORD_EXPANSION);
+        while (index < limit && !Character.isWhitespace(text.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+}
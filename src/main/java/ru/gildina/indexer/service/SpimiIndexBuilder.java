@@ -0,0 +1,279 @@
+package ru.gildina.indexer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.gildina.indexer.model.PostingBuffer;
+import ru.gildina.indexer.model.PostingStream;
+import ru.gildina.indexer.model.TermCounter;
+import ru.gildina.indexer.model.TermDictionary;
+import ru.gildina.indexer.util.AppConfig;
+import ru.gildina.indexer.util.CountMinSketch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Построение индекса в стиле SPIMI: записи "слово-файл" копятся в буфере
+ * до бюджета памяти, затем буфер сортируется и сбрасывается на диск отдельным
+ * прогоном (run). В конце прогоны сливаются k-путевым слиянием в один
+ * упорядоченный поток, который пишется в базу последовательно по словам.
+ * Затраты не зависят от размера кучи: в памяти только буфер и по блоку чтения на прогон.
+ * Попутно count-min sketch оценивает число файлов с каждым словом, чтобы найти частые слова
+ * (шаблонный текст, названия организаций), которые сохраняются битовыми картами.
+ */
+public class SpimiIndexBuilder implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SpimiIndexBuilder.class);
+    private static final int READ_BUFFER_RECORDS = 4096;
+    private static final int SKETCH_WIDTH = 1 << 16;
+    private static final int SKETCH_DEPTH = 4;
+
+    // Словарь прогона: ID слов в буфере, прогонах и счетчиках файлов
+    private final TermDictionary dictionary = new TermDictionary();
+    // Куски буфера выделяются до бюджета один раз и переиспользуются всеми прогонами
+    private final PostingBuffer buffer;
+    private final Path spillDirectory;
+    private final List<Path> runs = new ArrayList<>();
+    private long totalPostings;
+    private PostingStream output;
+
+    private final CountMinSketch docFreqSketch = new CountMinSketch(SKETCH_WIDTH, SKETCH_DEPTH);
+    private final BitSet frequentCandidates = new BitSet();
+    private final double frequentRatio = AppConfig.getDouble("indexing.frequent.ratio", 0.5);
+    private final int frequentMinDocs = AppConfig.getInt("indexing.frequent.min.docs", 1000);
+    private int documents;
+
+    public SpimiIndexBuilder() {
+        this(AppConfig.getLong("indexing.memory.budget.mb", 64) * 1024 * 1024,
+                Paths.get(AppConfig.getString("indexing.spill.dir", System.getProperty("java.io.tmpdir"))));
+    }
+
+    public SpimiIndexBuilder(long memoryBudgetBytes, Path spillDirectory) {
+        long budgetRecords = Math.max(1, memoryBudgetBytes / PostingBuffer.RECORD_BYTES);
+        this.buffer = new PostingBuffer(AppConfig.getInt("indexing.postings.chunk.kb", 1024) * 1024, budgetRecords);
+        this.spillDirectory = spillDirectory;
+    }
+
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Добавляет слова файла; при превышении бюджета буфер сбрасывается на диск
+     */
+    public void append(int entryOrdinal, TermCounter terms) throws IOException {
+        documents++;
+        TermCounter.Cursor term = terms.cursor();
+        while (term.next()) {
+            buffer.add(term.termId(), entryOrdinal, term.count(), term.firstBlock());
+            totalPostings++;
+            if (frequentRatio > 0 && docFreqSketch.add(term.termId()) >= frequentMinDocs) {
+                frequentCandidates.set(term.termId());
+            }
+            if (buffer.isFull()) {
+                spill();
+            }
+        }
+    }
+
+    public long getTotalPostings() {
+        return totalPostings;
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * ID слов, встретившихся (по оценке sketch) не меньше чем в indexing.frequent.ratio
+     * всех файлов и не меньше чем в indexing.frequent.min.docs файлах
+     */
+    public BitSet getFrequentTermIds() {
+        BitSet frequent = new BitSet();
+        if (frequentRatio <= 0) {
+            return frequent;
+        }
+        long threshold = Math.max(frequentMinDocs, (long) Math.ceil(frequentRatio * documents));
+        for (int termId = frequentCandidates.nextSetBit(0); termId >= 0;
+             termId = frequentCandidates.nextSetBit(termId + 1)) {
+            if (docFreqSketch.estimate(termId) >= threshold) {
+                frequent.set(termId);
+            }
+        }
+        if (!frequent.isEmpty()) {
+            logger.info("Частых слов: {} (порог {} из {} файлов)", frequent.cardinality(), threshold, documents);
+        }
+        return frequent;
+    }
+
+    /**
+     * Завершает построение: упорядоченный по (слово, файл) поток всех записей.
+     * Если ничего не сбрасывалось на диск, поток читается прямо из буфера
+     */
+    public PostingStream finish() throws IOException {
+        if (runs.isEmpty()) {
+            buffer.sort();
+            output = buffer.cursor();
+        } else {
+            if (!buffer.isEmpty()) {
+                spill();
+            }
+            output = new MergedRuns(runs);
+            logger.info("Слияние {} прогонов, записей: {}", runs.size(), totalPostings);
+        }
+        return output;
+    }
+
+    private void spill() throws IOException {
+        long start = System.currentTimeMillis();
+        buffer.sort();
+        Files.createDirectories(spillDirectory);
+        Path run = Files.createTempFile(spillDirectory, "spimi-run-", ".bin");
+        runs.add(run);
+        try (FileChannel channel = FileChannel.open(run, StandardOpenOption.WRITE)) {
+            buffer.writeTo(channel);
+        }
+        logger.info("Прогон {} сброшен на диск: {} записей за {} мс",
+                runs.size(), buffer.size(), System.currentTimeMillis() - start);
+        buffer.clear();
+    }
+
+    /**
+     * Удаляет файлы прогонов и отпускает буфер
+     */
+    @Override
+    public void close() {
+        if (output != null) {
+            output.close();
+        }
+        buffer.close();
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                logger.warn("Не удалось удалить файл прогона {}: {}", run, e.getMessage());
+            }
+        }
+        runs.clear();
+    }
+
+    /**
+     * Чтение одного прогона блоками в direct-буфер
+     */
+    private static class RunReader {
+        private final FileChannel channel;
+        private final ByteBuffer block = ByteBuffer
+                .allocateDirect(READ_BUFFER_RECORDS * PostingBuffer.RECORD_BYTES)
+                .order(ByteOrder.nativeOrder());
+        private int termId;
+        private int entryOrdinal;
+        private int count;
+        private int firstBlock;
+
+        RunReader(Path run) throws IOException {
+            this.channel = FileChannel.open(run, StandardOpenOption.READ);
+            block.limit(0);
+        }
+
+        boolean next() throws IOException {
+            if (block.remaining() < PostingBuffer.RECORD_BYTES) {
+                block.compact();
+                while (block.position() < PostingBuffer.RECORD_BYTES) {
+                    if (channel.read(block) < 0) {
+                        block.flip();
+                        return false;
+                    }
+                }
+                block.flip();
+            }
+            termId = block.getInt();
+            entryOrdinal = block.getInt();
+            count = block.getInt();
+            firstBlock = block.getInt();
+            return true;
+        }
+
+        long key() {
+            return ((long) termId << 32) | (entryOrdinal & 0xFFFFFFFFL);
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * k-путевое слияние прогонов через кучу по текущей записи каждого прогона
+     */
+    private static class MergedRuns implements PostingStream {
+        private final PriorityQueue<RunReader> heap =
+                new PriorityQueue<>((a, b) -> Long.compare(a.key(), b.key()));
+        private final List<RunReader> readers = new ArrayList<>();
+        private RunReader current;
+
+        MergedRuns(List<Path> runs) throws IOException {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.next()) {
+                    heap.add(reader);
+                }
+            }
+        }
+
+        @Override
+        public boolean next() {
+            try {
+                if (current != null && current.next()) {
+                    heap.add(current);
+                }
+                current = heap.poll();
+                return current != null;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка чтения прогона индекса", e);
+            }
+        }
+
+        @Override
+        public int termId() {
+            return current.termId;
+        }
+
+        @Override
+        public int entryOrdinal() {
+            return current.entryOrdinal;
+        }
+
+        @Override
+        public int count() {
+            return current.count;
+        }
+
+        @Override
+        public int firstBlock() {
+            return current.firstBlock;
+        }
+
+        @Override
+        public void close() {
+            for (RunReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    logger.warn("Не удалось закрыть прогон: {}", e.getMessage());
+                }
+            }
+            readers.clear();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package ru.gildina.indexer.snapshot;
+
+import ru.gildina.indexer.database.PostingCursor;
+import ru.gildina.indexer.database.WandTopKSearcher;
+import ru.gildina.indexer.model.FileIndexEntry;
+import ru.gildina.indexer.util.TrigramUtils;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Снимок индекса только для чтения, отображенный в память через {@link MappedByteBuffer}.
+ * Открытие - проверка заголовка, без десериализации: слова ищутся двоичным поиском
+ * прямо по байтам UTF-8, списки файлов читаются из отображения по смещению.
+ */
+public class IndexSnapshot implements AutoCloseable {
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int fileCount;
+    private final int termCount;
+    private final int filesOffset;
+    private final int termsOffset;
+    private final int stringsOffset;
+    private final long createdAt;
+
+    private IndexSnapshot(Path path, FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < SnapshotFormat.HEADER_BYTES || buffer.getLong(0) != SnapshotFormat.MAGIC) {
+            throw new IOException("Файл не является снимком индекса: " + path);
+        }
+        int version = buffer.getInt(8);
+        if (version != SnapshotFormat.VERSION) {
+            throw new IOException("Неподдерживаемая версия снимка " + version + ": " + path);
+        }
+        this.fileCount = buffer.getInt(SnapshotFormat.HEADER_FILE_COUNT);
+        this.termCount = buffer.getInt(SnapshotFormat.HEADER_TERM_COUNT);
+        this.filesOffset = (int) buffer.getLong(SnapshotFormat.HEADER_FILES_OFFSET);
+        this.termsOffset = (int) buffer.getLong(SnapshotFormat.HEADER_TERMS_OFFSET);
+        this.stringsOffset = (int) buffer.getLong(SnapshotFormat.HEADER_STRINGS_OFFSET);
+        this.createdAt = buffer.getLong(SnapshotFormat.HEADER_CREATED_AT);
+    }
+
+    public static IndexSnapshot open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Снимок больше 2 ГБ не поддерживается: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new IndexSnapshot(path, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Номер слова в снимке или -1
+     */
+    public int findTerm(String word) {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int record = termsOffset + middle * SnapshotFormat.TERM_RECORD_BYTES;
+            int cmp = compareString(buffer.getInt(record), buffer.getInt(record + 4), key);
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    public int getDocFreq(int term) {
+        return buffer.getInt(termsOffset + term * SnapshotFormat.TERM_RECORD_BYTES + 8);
+    }
+
+    public int getMaxCount(int term) {
+        return buffer.getInt(termsOffset + term * SnapshotFormat.TERM_RECORD_BYTES + 12);
+    }
+
+    public PostingCursor postings(int term) {
+        int record = termsOffset + term * SnapshotFormat.TERM_RECORD_BYTES;
+        return new SnapshotPostingCursor(buffer, (int) buffer.getLong(record + 16),
+                buffer.getInt(record + 8), buffer.getInt(record + 12));
+    }
+
+    /**
+     * Top-K файлов по сумме вхождений слов (тот же WAND, что и для базы)
+     */
+    public List<FileIndexEntry> searchByContentTopK(Collection<String> words, int k) {
+        List<PostingCursor> cursors = new ArrayList<>();
+        List<String> found = new ArrayList<>();
+        for (String word : words) {
+            int term = findTerm(word);
+            if (term >= 0) {
+                cursors.add(postings(term));
+                found.add(word);
+            }
+        }
+        List<FileIndexEntry> results = new ArrayList<>();
+        if (cursors.isEmpty()) {
+            return results;
+        }
+
+        try {
+            for (WandTopKSearcher.ScoredDoc doc : new WandTopKSearcher(k).search(cursors)) {
+                int ordinal = (int) doc.getDocId();
+                FileIndexEntry entry = fileAt(ordinal);
+                // Количества слов запроса - для вывода релевантности
+                for (String word : found) {
+                    PostingCursor cursor = postings(findTerm(word));
+                    if (cursor.advance(ordinal) == ordinal) {
+                        entry.addWord(word, cursor.count());
+                    }
+                }
+                results.add(entry);
+            }
+        } catch (SQLException e) {
+            // Курсоры снимка не обращаются к базе
+            throw new IllegalStateException(e);
+        }
+        return results;
+    }
+
+    /**
+     * Поиск подстроки в имени файла без учета регистра - линейный проход по таблице файлов
+     */
+    public List<FileIndexEntry> searchByFileName(String query) {
+        String folded = TrigramUtils.fold(query);
+        List<FileIndexEntry> results = new ArrayList<>();
+        for (int ordinal = 0; ordinal < fileCount; ordinal++) {
+            int record = filesOffset + ordinal * SnapshotFormat.FILE_RECORD_BYTES;
+            String name = readString(buffer.getInt(record + 32), buffer.getInt(record + 36));
+            if (TrigramUtils.fold(name).contains(folded)) {
+                results.add(fileAt(ordinal));
+            }
+        }
+        return results;
+    }
+
+    public FileIndexEntry fileAt(int ordinal) {
+        int record = filesOffset + ordinal * SnapshotFormat.FILE_RECORD_BYTES;
+        // Имя файла (смещение 32) входит в путь и отдельно не читается
+        FileIndexEntry entry = new FileIndexEntry(
+                readString(buffer.getInt(record + 24), buffer.getInt(record + 28)),
+                buffer.getLong(record + 8),
+                buffer.getLong(record + 16),
+                readString(buffer.getInt(record + 40), buffer.getInt(record + 44)));
+        entry.setId(buffer.getLong(record));
+        return entry;
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(stringsOffset + offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Беззнаковое сравнение байтов - так же, как SQLite упорядочивает TEXT
+    private int compareString(int offset, int length, byte[] key) {
+        int base = stringsOffset + offset;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Integer.compare(buffer.get(base + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    /**
+     * Закрывает файл; отображение освобождается сборщиком мусора
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
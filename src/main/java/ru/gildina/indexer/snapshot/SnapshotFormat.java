@@ -0,0 +1,39 @@
+package ru.gildina.indexer.snapshot;
+
+/**
+ * Формат файла снимка индекса. Все числа big-endian, строки - UTF-8 в общей области строк.
+ *
+ * <pre>
+ * Заголовок (64 байта):
+ *   long magic, int version, int fileCount, int termCount, int reserved,
+ *   long filesOffset, long postingsOffset, long termsOffset, long stringsOffset, long createdAt
+ * Файлы (по возрастанию ID, номер записи - номер файла в снимке), 48 байт:
+ *   long id, long size, long lastModified,
+ *   int pathOffset, int pathLength, int nameOffset, int nameLength, int extensionOffset, int extensionLength
+ * Списки файлов слов, 8 байт на запись, по возрастанию номера файла:
+ *   int fileOrdinal, int count
+ * Слова (по возрастанию байтов UTF-8, как сортирует SQLite), 24 байта:
+ *   int wordOffset, int wordLength, int docFreq, int maxCount, long postingsOffset
+ * Строки
+ * </pre>
+ */
+final class SnapshotFormat {
+    static final long MAGIC = 0x4649534E41505331L; // "FISNAPS1"
+    static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 64;
+    static final int FILE_RECORD_BYTES = 48;
+    static final int TERM_RECORD_BYTES = 24;
+    static final int POSTING_BYTES = 8;
+
+    static final int HEADER_FILE_COUNT = 12;
+    static final int HEADER_TERM_COUNT = 16;
+    static final int HEADER_FILES_OFFSET = 24;
+    static final int HEADER_POSTINGS_OFFSET = 32;
+    static final int HEADER_TERMS_OFFSET = 40;
+    static final int HEADER_STRINGS_OFFSET = 48;
+    static final int HEADER_CREATED_AT = 56;
+
+    private SnapshotFormat() {
+    }
+}
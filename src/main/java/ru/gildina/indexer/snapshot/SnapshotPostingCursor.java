@@ -0,0 +1,69 @@
+package ru.gildina.indexer.snapshot;
+
+import ru.gildina.indexer.database.PostingCursor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Курсор по списку файлов слова прямо в отображенном снимке.
+ * ID документа - номер файла в снимке; advance() ищет двоичным поиском.
+ */
+class SnapshotPostingCursor implements PostingCursor {
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+    private final int maxCount;
+    private int position;
+
+    SnapshotPostingCursor(ByteBuffer buffer, int offset, int length, int maxCount) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.maxCount = maxCount;
+    }
+
+    @Override
+    public long docId() {
+        return position < length ? ordinalAt(position) : NO_MORE_DOCS;
+    }
+
+    @Override
+    public int count() {
+        return buffer.getInt(offset + position * SnapshotFormat.POSTING_BYTES + 4);
+    }
+
+    @Override
+    public int maxCount() {
+        return maxCount;
+    }
+
+    @Override
+    public long next() {
+        position++;
+        return docId();
+    }
+
+    @Override
+    public long advance(long target) {
+        int low = position;
+        int high = length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (ordinalAt(middle) < target) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        position = low;
+        return docId();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private int ordinalAt(int index) {
+        return buffer.getInt(offset + index * SnapshotFormat.POSTING_BYTES);
+    }
+}
@@ -0,0 +1,236 @@
+package ru.gildina.indexer.snapshot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.gildina.indexer.database.DatabaseManager;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Выгружает индекс из базы в неизменяемый файл снимка (формат - {@link SnapshotFormat}).
+ * Файл пишется последовательно во временный файл и атомарно переименовывается,
+ * так что читатели никогда не увидят недописанный снимок.
+ */
+public class SnapshotWriter {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotWriter.class);
+
+    private final DatabaseManager databaseManager;
+
+    public SnapshotWriter(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    public void export(Path target) throws IOException, SQLException {
+        long start = System.currentTimeMillis();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Strings strings = new Strings();
+
+        // Файлы: метаданные в памяти до записи, строки - сразу в область строк
+        FileTable files = new FileTable();
+        databaseManager.scanFileMetadata((id, dirId, path, size, lastModified, extension) ->
+                files.add(id, size, lastModified, strings, path, extension));
+
+        long filesOffset;
+        long postingsOffset;
+        long termsOffset;
+        long stringsOffset;
+        int termCount;
+        try {
+            // Заголовок с итоговыми смещениями дописывается после закрытия потока
+            try (CountingOutput out = new CountingOutput(Files.newOutputStream(temp))) {
+                out.write(new byte[SnapshotFormat.HEADER_BYTES]);
+
+                filesOffset = out.position();
+                for (int i = 0; i < files.size; i++) {
+                    out.writeLong(files.ids[i]);
+                    out.writeLong(files.sizes[i]);
+                    out.writeLong(files.lastModified[i]);
+                    for (int field = 0; field < 6; field++) {
+                        out.writeInt(files.strings[i * 6 + field]);
+                    }
+                }
+
+                // Списки файлов пишутся потоком в порядке слов; записи слов копятся в памяти
+                postingsOffset = out.position();
+                TermTable terms = new TermTable();
+                try {
+                    databaseManager.scanPostingsByWord((word, fileId, count) -> {
+                        int ordinal = Arrays.binarySearch(files.ids, 0, files.size, fileId);
+                        if (ordinal < 0) {
+                            return;
+                        }
+                        try {
+                            if (!word.equals(terms.currentWord)) {
+                                terms.start(word, strings, out.position());
+                            }
+                            out.writeInt(ordinal);
+                            out.writeInt(count);
+                            terms.addPosting(count);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+
+                termsOffset = out.position();
+                for (int i = 0; i < terms.size; i++) {
+                    out.writeInt(terms.wordOffsets[i]);
+                    out.writeInt(terms.wordLengths[i]);
+                    out.writeInt(terms.docFreqs[i]);
+                    out.writeInt(terms.maxCounts[i]);
+                    out.writeLong(terms.postingsOffsets[i]);
+                }
+
+                stringsOffset = out.position();
+                strings.writeTo(out);
+                out.flush();
+
+                if (out.position() >= Integer.MAX_VALUE) {
+                    throw new IOException("Снимок больше 2 ГБ не поддерживается: " + out.position() + " байт");
+                }
+
+                termCount = terms.size;
+            }
+
+            writeHeader(temp, files.size, termCount, filesOffset, postingsOffset, termsOffset, stringsOffset);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            logger.info("Снимок {} записан за {} мс: файлов {}, слов {}, {} байт",
+                    target, System.currentTimeMillis() - start, files.size, termCount, stringsOffset + strings.size());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeHeader(Path file, int fileCount, int termCount, long filesOffset,
+                                    long postingsOffset, long termsOffset, long stringsOffset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.writeLong(SnapshotFormat.MAGIC);
+            raf.writeInt(SnapshotFormat.VERSION);
+            raf.writeInt(fileCount);
+            raf.writeInt(termCount);
+            raf.writeInt(0);
+            raf.writeLong(filesOffset);
+            raf.writeLong(postingsOffset);
+            raf.writeLong(termsOffset);
+            raf.writeLong(stringsOffset);
+            raf.writeLong(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Область строк UTF-8; смещения считаются от ее начала
+     */
+    private static class Strings {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        /**
+         * Добавляет строку, записывая смещение и длину в target[index], target[index + 1]
+         */
+        void add(String value, int[] target, int index) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            target[index] = bytes.size();
+            target[index + 1] = encoded.length;
+            bytes.write(encoded, 0, encoded.length);
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            bytes.writeTo(out);
+        }
+    }
+
+    private static class FileTable {
+        long[] ids = new long[1024];
+        long[] sizes = new long[1024];
+        long[] lastModified = new long[1024];
+        int[] strings = new int[1024 * 6];
+        int size;
+
+        void add(long id, long fileSize, long modified, Strings area, String path, String extension) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                lastModified = Arrays.copyOf(lastModified, capacity);
+                strings = Arrays.copyOf(strings, capacity * 6);
+            }
+            ids[size] = id;
+            sizes[size] = fileSize;
+            lastModified[size] = modified;
+
+            area.add(path, strings, size * 6);
+            // Имя файла - хвост пути, отдельно не храним
+            String normalized = path.replace('\\', '/');
+            String name = normalized.substring(normalized.lastIndexOf('/') + 1);
+            int nameBytes = name.getBytes(StandardCharsets.UTF_8).length;
+            strings[size * 6 + 2] = strings[size * 6] + strings[size * 6 + 1] - nameBytes;
+            strings[size * 6 + 3] = nameBytes;
+            area.add(extension == null ? "" : extension, strings, size * 6 + 4);
+            size++;
+        }
+    }
+
+    private static class TermTable {
+        int[] wordOffsets = new int[4096];
+        int[] wordLengths = new int[4096];
+        int[] docFreqs = new int[4096];
+        int[] maxCounts = new int[4096];
+        long[] postingsOffsets = new long[4096];
+        int size;
+        String currentWord;
+        private final int[] location = new int[2];
+
+        void start(String word, Strings area, long postingsOffset) {
+            if (size == wordOffsets.length) {
+                int capacity = size * 2;
+                wordOffsets = Arrays.copyOf(wordOffsets, capacity);
+                wordLengths = Arrays.copyOf(wordLengths, capacity);
+                docFreqs = Arrays.copyOf(docFreqs, capacity);
+                maxCounts = Arrays.copyOf(maxCounts, capacity);
+                postingsOffsets = Arrays.copyOf(postingsOffsets, capacity);
+            }
+            area.add(word, location, 0);
+            wordOffsets[size] = location[0];
+            wordLengths[size] = location[1];
+            postingsOffsets[size] = postingsOffset;
+            size++;
+            currentWord = word;
+        }
+
+        void addPosting(int count) {
+            docFreqs[size - 1]++;
+            maxCounts[size - 1] = Math.max(maxCounts[size - 1], count);
+        }
+    }
+
+    /**
+     * Буферизованный вывод с подсчетом позиции
+     */
+    private static class CountingOutput extends DataOutputStream {
+        CountingOutput(OutputStream out) {
+            super(new BufferedOutputStream(out, 1 << 16));
+        }
+
+        long position() {
+            return size();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package ru.gildina.indexer.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Настройки приложения из application.properties.
+ * Любое значение можно переопределить системным свойством: -Dsearch.cache.max.entries=512
+ */
+public class AppConfig {
+    private static final Logger logger = LoggerFactory.getLogger(AppConfig.class);
+    private static final String CONFIG_FILE = "/application.properties";
+    private static final Properties properties = loadProperties();
+
+    private static Properties loadProperties() {
+        Properties props = new Properties();
+        try (InputStream is = AppConfig.class.getResourceAsStream(CONFIG_FILE)) {
+            if (is == null) {
+                logger.warn("Файл настроек {} не найден, используются значения по умолчанию", CONFIG_FILE);
+                return props;
+            }
+            try (Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8)) {
+                props.load(reader);
+            }
+        } catch (Exception e) {
+            logger.warn("Не удалось прочитать файл настроек {}: {}", CONFIG_FILE, e.getMessage());
+        }
+        return props;
+    }
+
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value != null ? value.trim() : defaultValue;
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Некорректное значение настройки {}={}, используется {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Некорректное значение настройки {}={}, используется {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Некорректное значение настройки {}={}, используется {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+}
@@ -0,0 +1,102 @@
+package ru.gildina.indexer.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Фильтр Блума над строками: "точно нет" или "возможно есть".
+ * Позиции битов - двойное хеширование h1 + i * h2 от 64-битного хеша строки.
+ */
+public class BloomFilter {
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    private BloomFilter(long[] bits, int hashCount) {
+        this.bits = bits;
+        this.bitCount = (long) bits.length * Long.SIZE;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Фильтр под ожидаемое число элементов с заданной долей ложных срабатываний
+     */
+    public static BloomFilter create(int expectedItems, double falsePositiveRate) {
+        int items = Math.max(1, expectedItems);
+        double rate = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+        long bitsNeeded = (long) Math.ceil(-items * Math.log(rate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (bitsNeeded + Long.SIZE - 1) / Long.SIZE);
+        int hashes = (int) Math.max(1, Math.round((double) words * Long.SIZE / items * Math.log(2)));
+        return new BloomFilter(new long[words], Math.min(hashes, 16));
+    }
+
+    public void put(String value) {
+        long hash = hash64(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String value) {
+        long hash = hash64(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Сериализация: число хешей и биты
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bits.length * Long.BYTES);
+        buffer.putInt(hashCount);
+        for (long word : bits) {
+            buffer.putLong(word);
+        }
+        return buffer.array();
+    }
+
+    public static BloomFilter fromBytes(byte[] data) {
+        if (data == null || data.length < 4 + Long.BYTES || (data.length - 4) % Long.BYTES != 0) {
+            throw new IllegalArgumentException("Поврежденные данные фильтра Блума");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int hashCount = buffer.getInt();
+        long[] bits = new long[(data.length - 4) / Long.BYTES];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = buffer.getLong();
+        }
+        return new BloomFilter(bits, hashCount);
+    }
+
+    // FNV-1a по символам с финальным перемешиванием (murmur3 fmix64)
+    private static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
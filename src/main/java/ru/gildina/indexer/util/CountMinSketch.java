@@ -0,0 +1,69 @@
+package ru.gildina.indexer.util;
+
+/**
+ * Count-min sketch: приблизительные счетчики для произвольного числа ключей в фиксированной памяти.
+ * Оценка никогда не меньше истинного значения; консервативное обновление увеличивает
+ * только минимальные счетчики строк, что заметно уменьшает переоценку.
+ */
+public class CountMinSketch {
+    private final int[] counters;
+    private final int width;
+    private final int depth;
+
+    /**
+     * @param width число счетчиков в строке, округляется вверх до степени двойки
+     * @param depth число строк (независимых хешей)
+     */
+    public CountMinSketch(int width, int depth) {
+        this.width = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+        this.depth = Math.max(1, depth);
+        this.counters = new int[this.width * this.depth];
+    }
+
+    /**
+     * Увеличивает счетчик ключа на 1 и возвращает новую оценку
+     */
+    public int add(long key) {
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        int estimate = estimate(h1, h2);
+        if (estimate == Integer.MAX_VALUE) {
+            return estimate;
+        }
+        for (int row = 0; row < depth; row++) {
+            int index = row * width + ((h1 + row * h2) & (width - 1));
+            if (counters[index] == estimate) {
+                counters[index]++;
+            }
+        }
+        return estimate + 1;
+    }
+
+    public int estimate(long key) {
+        long hash = mix(key);
+        return estimate((int) hash, (int) (hash >>> 32));
+    }
+
+    public long getMemoryBytes() {
+        return (long) counters.length * Integer.BYTES;
+    }
+
+    private int estimate(int h1, int h2) {
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters[row * width + ((h1 + row * h2) & (width - 1))]);
+        }
+        return min;
+    }
+
+    // murmur3 fmix64
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -2,145 +2,256 @@ package ru.gildina.indexer.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
+/**
+ * Потоковое извлечение текста из DOCX: части документа читаются StAX-парсером прямо из ZIP,
+ * текст отдается по абзацам, так что память не зависит от размера документа.
+ * Кроме word/document.xml читаются колонтитулы и сноски.
+ */
 public class DocxTextExtractor {
     private static final Logger logger = LoggerFactory.getLogger(DocxTextExtractor.class);
+    // Версия алгоритма извлечения - часть ключа кэша извлеченного текста
+    public static final int VERSION = 3;
+
+    private static final String WORD_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String DOCUMENT_PART = "word/document.xml";
+    // Колонтитулы и сноски - после основного текста
+    private static final Pattern EXTRA_PARTS = Pattern.compile(
+            "word/(header\\d*|footer\\d*|footnotes|endnotes)\\.xml");
+    // Очень длинный абзац отдается кусками по последней границе слова, чтобы буфер оставался ограниченным
+    private static final int MAX_PARAGRAPH_CHARS = 8192;
+
+    private static final XMLInputFactory XML_FACTORY = createFactory();
 
     /**
-     * Упрощенный метод извлечения текста из DOCX
+     * Передает в sink текст документа по абзацам. Возвращает число прочитанных частей документа
+     *
+     * @throws IOException если файл не ZIP или в нем нет word/document.xml
      */
-    public static String extractTextFromDocx(Path filePath) {
-        logger.info("🔍 Попытка извлечь текст из: {}", filePath);
+    public static int extractText(Path filePath, Consumer<String> sink) throws IOException {
+        if (!hasZipSignature(filePath)) {
+            throw new IOException("Это не DOCX файл (неверная сигнатура): " + filePath);
+        }
 
-        try {
-            // Проверяем, что файл существует и доступен для чтения
-            if (!Files.exists(filePath)) {
-                logger.error(" Файл не существует: {}", filePath);
-                return "";
+        try (ZipFile zipFile = new ZipFile(filePath.toFile())) {
+            ZipEntry documentEntry = zipFile.getEntry(DOCUMENT_PART);
+            if (documentEntry == null) {
+                throw new IOException(DOCUMENT_PART + " не найден в архиве: " + filePath);
             }
 
-            if (!Files.isReadable(filePath)) {
-                logger.error(" Файл недоступен для чтения: {}", filePath);
-                return "";
+            List<ZipEntry> parts = new ArrayList<>();
+            parts.add(documentEntry);
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (EXTRA_PARTS.matcher(entry.getName()).matches()) {
+                    parts.add(entry);
+                }
             }
 
-            long fileSize = Files.size(filePath);
-            logger.info(" Размер файла: {} байт", fileSize);
-
-            // Простая проверка - читаем первые 1000 байт чтобы убедиться что это DOCX
-            byte[] header = Files.readAllBytes(filePath);
-            if (header.length < 4) {
-                logger.error("Файл слишком маленький: {}", filePath);
-                return "";
+            for (ZipEntry part : parts) {
+                try (InputStream is = zipFile.getInputStream(part)) {
+                    extractPart(is, sink);
+                } catch (XMLStreamException e) {
+                    throw new IOException("Ошибка разбора " + part.getName() + ": " + e.getMessage(), e);
+                }
             }
+            logger.debug("Прочитано частей DOCX: {} в {}", parts.size(), filePath);
+            return parts.size();
+        }
+    }
 
-            // Проверяем сигнатуру DOCX (PK zip header)
-            if (header[0] != 0x50 || header[1] != 0x4B || header[2] != 0x03 || header[3] != 0x04) {
-                logger.error(" Это не DOCX файл (неверная сигнатура): {}", filePath);
-                return "not_a_docx_file";
+    /**
+     * То же для документа без файла на диске (член архива): архив читается потоком дважды -
+     * сначала word/document.xml, затем колонтитулы и сноски, чтобы порядок текста был тем же
+     */
+    public static int extractText(String name, InputSupplier content, Consumer<String> sink) throws IOException {
+        try (InputStream is = content.open()) {
+            if (!hasZipSignature(is)) {
+                throw new IOException("Это не DOCX файл (неверная сигнатура): " + name);
             }
+        }
+        if (extractParts(content, DOCUMENT_PART::equals, sink) == 0) {
+            throw new IOException(DOCUMENT_PART + " не найден в архиве: " + name);
+        }
+        int parts = 1 + extractParts(content, partName -> EXTRA_PARTS.matcher(partName).matches(), sink);
+        logger.debug("Прочитано частей DOCX: {} в {}", parts, name);
+        return parts;
+    }
 
-            logger.info("Файл похож на DOCX (правильная сигнатура)");
-
-            // Пробуем извлечь текст
-            try (ZipFile zipFile = new ZipFile(filePath.toFile())) {
-                logger.info("ZIP архив открыт успешно");
-
-                // Получаем список всех entries для отладки
-                java.util.Enumeration<? extends ZipEntry> entries = zipFile.entries();
-                int entryCount = 0;
-                while (entries.hasMoreElements()) {
-                    ZipEntry entry = entries.nextElement();
-                    logger.debug("Entry: {}", entry.getName());
-                    entryCount++;
+    private static int extractParts(InputSupplier content, Predicate<String> partFilter,
+                                    Consumer<String> sink) throws IOException {
+        int parts = 0;
+        try (ZipInputStream zip = new ZipInputStream(content.open())) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!partFilter.test(entry.getName())) {
+                    continue;
                 }
-                logger.info("Всего entries в архиве: {}", entryCount);
-
-                // Ищем document.xml
-                ZipEntry documentEntry = zipFile.getEntry("word/document.xml");
-                if (documentEntry != null) {
-                    logger.info("Найден word/document.xml");
-
-                    try (InputStream is = zipFile.getInputStream(documentEntry)) {
-                        String content = new String(is.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8);
-                        logger.info(" Размер document.xml: {} символов", content.length());
-
-                        String extractedText = extractTextFromXml(content);
-                        logger.info(" Извлечено текста: {} символов", extractedText.length());
-
-                        return extractedText;
-                    }
-                } else {
-                    logger.warn(" word/document.xml не найден в архиве");
-                    // Пробуем другие возможные расположения
-                    String[] possiblePaths = {
-                            "word/document.xml",
-                            "Document.xml",
-                            "document.xml"
-                    };
-
-                    for (String path : possiblePaths) {
-                        ZipEntry altEntry = zipFile.getEntry(path);
-                        if (altEntry != null) {
-                            logger.info("Найден альтернативный путь: {}", path);
-                            try (InputStream is = zipFile.getInputStream(altEntry)) {
-                                String content = new String(is.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8);
-                                return extractTextFromXml(content);
-                            }
+                try {
+                    // Парсер JDK закрывает поток в конце документа - закрываться должен только весь архив
+                    extractPart(new FilterInputStream(zip) {
+                        @Override
+                        public void close() {
                         }
-                    }
-
-                    logger.error(" Не найден ни один document.xml в архиве");
-                    return "no_document_xml_found";
+                    }, sink);
+                } catch (XMLStreamException e) {
+                    throw new IOException("Ошибка разбора " + entry.getName() + ": " + e.getMessage(), e);
                 }
-
-            } catch (Exception e) {
-                logger.error(" Ошибка при чтении ZIP архива: {}", e.getMessage());
-                return "zip_read_error";
+                parts++;
             }
-
-        } catch (Exception e) {
-            logger.error(" Критическая ошибка при обработке DOCX: {}", e.getMessage());
-            e.printStackTrace();
-            return "critical_error";
         }
+        return parts;
     }
 
     /**
-     * Упрощенный метод извлечения текста из XML
+     * Весь текст документа одной строкой (абзацы через перевод строки); пустая строка при ошибке
      */
-    private static String extractTextFromXml(String xml) {
-        logger.info(" Начинаем извлечение текста из XML...");
-
+    public static String extractTextFromDocx(Path filePath) {
         StringBuilder text = new StringBuilder();
-        int start = 0;
-        int textCount = 0;
+        try {
+            extractText(filePath, paragraph -> text.append(paragraph).append('\n'));
+        } catch (IOException e) {
+            logger.warn("Не удалось извлечь текст из DOCX {}: {}", filePath, e.getMessage());
+            return "";
+        }
+        return text.toString().trim();
+    }
 
-        while (true) {
-            int tagStart = xml.indexOf("<w:t", start);
-            if (tagStart == -1) break;
+    /**
+     * Сигнатура ZIP (PK\3\4) - читаются только первые 4 байта
+     */
+    static boolean hasZipSignature(Path filePath) throws IOException {
+        try (InputStream is = Files.newInputStream(filePath)) {
+            return hasZipSignature(is);
+        }
+    }
 
-            int textStart = xml.indexOf('>', tagStart) + 1;
-            if (textStart == 0) break;
+    private static boolean hasZipSignature(InputStream is) throws IOException {
+        byte[] header = is.readNBytes(4);
+        return header.length == 4
+                && header[0] == 0x50 && header[1] == 0x4B && header[2] == 0x03 && header[3] == 0x04;
+    }
 
-            int textEnd = xml.indexOf("</w:t>", textStart);
-            if (textEnd == -1) break;
+    /**
+     * Текст из w:t; w:tab и w:br - пробел, конец w:p - граница абзаца.
+     * Удаленный текст правок (w:delText) и коды полей (w:instrText) не читаются.
+     */
+    private static void extractPart(InputStream is, Consumer<String> sink) throws XMLStreamException {
+        XMLStreamReader reader = XML_FACTORY.createXMLStreamReader(is);
+        try {
+            StringBuilder paragraph = new StringBuilder();
+            boolean inText = false;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        if (!WORD_NS.equals(reader.getNamespaceURI())) {
+                            break;
+                        }
+                        switch (reader.getLocalName()) {
+                            case "t":
+                                inText = true;
+                                break;
+                            case "tab":
+                            case "br":
+                            case "cr":
+                                paragraph.append(' ');
+                                flushIfLong(paragraph, sink);
+                                break;
+                            default:
+                                break;
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (inText) {
+                            paragraph.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                            flushIfLong(paragraph, sink);
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (!WORD_NS.equals(reader.getNamespaceURI())) {
+                            break;
+                        }
+                        if ("t".equals(reader.getLocalName())) {
+                            inText = false;
+                        } else if ("p".equals(reader.getLocalName())) {
+                            flush(paragraph, sink);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            flush(paragraph, sink);
+        } finally {
+            reader.close();
+        }
+    }
 
-            String textContent = xml.substring(textStart, textEnd);
-            text.append(textContent).append(" ");
-            textCount++;
+    /**
+     * Абзац длиннее MAX_PARAGRAPH_CHARS отдается до последней границы слова, остаток (начало
+     * слова, которое может продолжиться в следующем w:t) остается в буфере. Без единой границы
+     * буфер отдается целиком - слов такой длины не бывает
+     */
+    private static void flushIfLong(StringBuilder paragraph, Consumer<String> sink) {
+        if (paragraph.length() < MAX_PARAGRAPH_CHARS) {
+            return;
+        }
+        int boundary = lastWordBoundary(paragraph);
+        if (boundary == 0) {
+            flush(paragraph, sink);
+            return;
+        }
+        sink.accept(paragraph.substring(0, boundary));
+        paragraph.delete(0, boundary);
+    }
 
-            start = textEnd + 6;
+    /**
+     * Позиция после последнего символа, который не может быть частью слова, или 0, если таких нет
+     */
+    private static int lastWordBoundary(CharSequence text) {
+        for (int i = text.length() - 1; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-') {
+                return i + 1;
+            }
         }
+        return 0;
+    }
 
-        logger.info(" Найдено {} текстовых блоков", textCount);
-        logger.info("Итоговый текст: '{}'", text.toString().trim());
+    private static void flush(StringBuilder paragraph, Consumer<String> sink) {
+        if (paragraph.length() > 0) {
+            sink.accept(paragraph.toString());
+            paragraph.setLength(0);
+        }
+    }
 
-        return text.toString().trim();
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Внешние сущности и DTD в документах не нужны и небезопасны
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
     }
-}
\ No newline at end of file
+}
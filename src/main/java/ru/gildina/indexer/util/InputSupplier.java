@@ -0,0 +1,13 @@
+package ru.gildina.indexer.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Источник содержимого, который можно прочитать несколько раз: каждый вызов open()
+ * возвращает новый поток с начала данных
+ */
+@FunctionalInterface
+public interface InputSupplier {
+    InputStream open() throws IOException;
+}
@@ -0,0 +1,116 @@
+package ru.gildina.indexer.util;
+
+/**
+ * Легкий стемминг: срезает словоизменительные окончания, не трогая словообразование.
+ * Русские слова - самое длинное окончание из списка при основе не короче трех букв,
+ * английские - множественное число и -ing/-ed. Слова с цифрами и смешанным алфавитом не меняются.
+ */
+public final class LightStemmer {
+    private static final int MIN_STEM = 3;
+
+    // Окончания существительных, прилагательных, причастий и глаголов; длинные раньше коротких
+    private static final String[] RUSSIAN_ENDINGS = {
+            "ающими", "яющими", "ившими", "ывшими",
+            "иями", "ями", "ами", "иях", "ого", "его", "ому", "ему", "ыми", "ими",
+            "ешь", "ете", "ишь", "ите", "ать", "ять", "ить", "еть", "ует", "уют",
+            "ает", "яет", "ают", "яют",
+            "ях", "ах", "ов", "ев", "ей", "ий", "ый", "ой", "ая", "яя", "ое", "ее",
+            "ие", "ые", "ом", "ем", "ам", "им", "ым", "ую", "юю", "ия", "ья", "ье", "ью",
+            "ии", "ет", "ют", "ут", "ит", "ат", "ят", "ла", "ли", "ло",
+            "а", "я", "о", "е", "ы", "и", "у", "ю", "ь", "й"
+    };
+
+    private LightStemmer() {
+    }
+
+    public static String stem(String word) {
+        switch (alphabetOf(word)) {
+            case CYRILLIC:
+                return stemRussian(word);
+            case LATIN:
+                return stemEnglish(word);
+            default:
+                return word;
+        }
+    }
+
+    private static String stemRussian(String word) {
+        if (word.endsWith("ся") || word.endsWith("сь")) {
+            // Возвратные глаголы: учится -> учит
+            String base = word.substring(0, word.length() - 2);
+            if (base.length() > MIN_STEM) {
+                word = base;
+            }
+        }
+        for (String ending : RUSSIAN_ENDINGS) {
+            if (word.length() - ending.length() >= MIN_STEM && word.endsWith(ending)) {
+                return word.substring(0, word.length() - ending.length());
+            }
+        }
+        return word;
+    }
+
+    private static String stemEnglish(String word) {
+        int length = word.length();
+        if (length > 4 && word.endsWith("ies")) {
+            return word.substring(0, length - 3) + "y";
+        }
+        if (word.endsWith("sses")) {
+            return word.substring(0, length - 2);
+        }
+        if (length > 4 && (word.endsWith("xes") || word.endsWith("ches") || word.endsWith("shes"))) {
+            return word.substring(0, length - 2);
+        }
+        if (length > 3 && word.endsWith("s") && !word.endsWith("ss")
+                && !word.endsWith("us") && !word.endsWith("is")) {
+            return word.substring(0, length - 1);
+        }
+        if (length > 5 && word.endsWith("ing") && hasVowel(word, length - 3)) {
+            return undouble(word.substring(0, length - 3));
+        }
+        if (length > 4 && word.endsWith("ed") && hasVowel(word, length - 2)) {
+            return undouble(word.substring(0, length - 2));
+        }
+        return word;
+    }
+
+    // running -> runn -> run, но не fall -> fal
+    private static String undouble(String stem) {
+        int length = stem.length();
+        if (length > 3 && stem.charAt(length - 1) == stem.charAt(length - 2)
+                && "lsz".indexOf(stem.charAt(length - 1)) < 0) {
+            return stem.substring(0, length - 1);
+        }
+        return stem;
+    }
+
+    private static boolean hasVowel(String word, int end) {
+        for (int i = 0; i < end; i++) {
+            if ("aeiouy".indexOf(word.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private enum Alphabet { CYRILLIC, LATIN, OTHER }
+
+    private static Alphabet alphabetOf(String word) {
+        boolean cyrillic = false;
+        boolean latin = false;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c >= 'а' && c <= 'я') {
+                cyrillic = true;
+            } else if (c >= 'a' && c <= 'z') {
+                latin = true;
+            } else {
+                return Alphabet.OTHER;
+            }
+        }
+        if (cyrillic == latin) {
+            return Alphabet.OTHER;
+        }
+        return cyrillic ? Alphabet.CYRILLIC : Alphabet.LATIN;
+    }
+}
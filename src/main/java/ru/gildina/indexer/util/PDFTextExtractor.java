@@ -1,40 +1,209 @@
 package ru.gildina.indexer.util;
 
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
+/**
+ * Извлечение текста из PDF диапазонами страниц. Документ открывается с буфером
+ * MemoryUsageSetting.setupMixed: сверх небольшого бюджета в куче потоки PDF лежат во временном файле.
+ * Текст каждого диапазона сразу отдается построчно, целиком документ в памяти не собирается.
+ * Большие документы делятся между потоками: каждый поток один раз открывает свою копию
+ * документа (PDDocument не потокобезопасен) и разбирает ею все свои диапазоны, результаты
+ * отдаются в порядке страниц. Перед каждой страницей проверяется отмена извлечения.
+ */
 public class PDFTextExtractor {
     private static final Logger logger = LoggerFactory.getLogger(PDFTextExtractor.class);
+    // Версия алгоритма извлечения - часть ключа кэша извлеченного текста
+    public static final int VERSION = 2;
+
+    private static final int PAGES_PER_RANGE = Math.max(1, AppConfig.getInt("indexing.pdf.pages.per.range", 20));
+    private static final int WORKERS = Math.max(1, AppConfig.getInt("indexing.pdf.workers",
+            Math.min(4, Runtime.getRuntime().availableProcessors())));
+    private static final long MEMORY_BYTES = AppConfig.getLong("indexing.pdf.memory.mb", 16) * 1024 * 1024;
+    private static final boolean SORT_BY_POSITION = AppConfig.getBoolean("indexing.pdf.sort.by.position", false);
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
 
     /**
-     * Извлекает текст из PDF файла
+     * Настройки, влияющие на извлеченный текст, - для ключа кэша извлечения
      */
-    public static String extractTextFromPdf(Path filePath) {
-        try (PDDocument document = PDDocument.load(filePath.toFile())) {
+    public static String getSettings() {
+        return "sort.by.position=" + SORT_BY_POSITION;
+    }
+
+    /**
+     * Передает в sink текст PDF построчно в порядке страниц. Возвращает число страниц
+     */
+    public static int extractText(Path filePath, Consumer<String> sink) throws IOException {
+        return extractText(filePath.toString(), () -> open(filePath), sink);
+    }
+
+    /**
+     * То же для PDF без файла на диске (член архива); поток копируется PDFBox в буфер
+     * с тем же ограничением памяти, остальное - во временный файл
+     */
+    public static int extractText(String name, InputSupplier content, Consumer<String> sink) throws IOException {
+        return extractText(name, () -> {
+            try (InputStream is = content.open()) {
+                return PDDocument.load(is, MemoryUsageSetting.setupMixed(MEMORY_BYTES));
+            }
+        }, sink);
+    }
 
+    private static int extractText(String name, DocumentLoader loader, Consumer<String> sink) throws IOException {
+        int pageCount;
+        try (PDDocument document = loader.load()) {
             if (document.isEncrypted()) {
-                logger.warn("PDF файл зашифрован, пропускаем: {}", filePath);
-                return "";
+                logger.warn("PDF файл зашифрован, пропускаем: {}", name);
+                return 0;
+            }
+            pageCount = document.getNumberOfPages();
+            if (WORKERS == 1 || pageCount <= PAGES_PER_RANGE) {
+                // Небольшой документ - диапазоны по очереди в текущем потоке
+                for (int start = 1; start <= pageCount; start += PAGES_PER_RANGE) {
+                    emitLines(stripRange(document, start, Math.min(pageCount, start + PAGES_PER_RANGE - 1),
+                            () -> false), sink);
+                }
+                return pageCount;
+            }
+        }
+
+        // Большой документ: каждый поток открывает свою копию один раз и берет диапазоны по порядку.
+        // Одновременно взято не больше WORKERS неотданных диапазонов, поэтому в памяти не больше WORKERS кусков текста
+        int rangeCount = (pageCount + PAGES_PER_RANGE - 1) / PAGES_PER_RANGE;
+        int workers = Math.min(WORKERS, rangeCount);
+        logger.debug("PDF {}: {} страниц, извлечение в {} потоках", name, pageCount, workers);
+        // Потоки свои у каждого извлечения: поток, зависший внутри PDFBox после отмены извлечения
+        // сторожем по сроку, бросается вместе со своим пулом и не занимает потоки следующих документов
+        RangeQueue ranges = new RangeQueue(pageCount, rangeCount);
+        ExecutorService pool = newPool(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                pool.submit(() -> stripRanges(loader, ranges));
+            }
+            for (int range = 0; range < rangeCount; range++) {
+                String text = await(ranges.result(range));
+                ranges.release(range);
+                emitLines(text, sink);
             }
+        } finally {
+            ranges.cancel();
+            pool.shutdownNow();
+        }
+        return pageCount;
+    }
+
+    /**
+     * Работа одного потока большого документа: одна копия документа на все взятые потоком диапазоны
+     */
+    private static void stripRanges(DocumentLoader loader, RangeQueue ranges) {
+        try (PDDocument document = loader.load()) {
+            while (true) {
+                ranges.window.acquire();
+                int range = ranges.next.getAndIncrement();
+                if (range >= ranges.count || ranges.cancelled) {
+                    ranges.window.release();
+                    return;
+                }
+                int start = range * PAGES_PER_RANGE + 1;
+                ranges.complete(range, stripRange(document, start, Math.min(ranges.pageCount, start + PAGES_PER_RANGE - 1),
+                        () -> ranges.cancelled));
+            }
+        } catch (Throwable e) {
+            ranges.fail(e);
+        }
+    }
+
+    /**
+     * Диапазоны страниц большого документа и их результаты
+     */
+    private static final class RangeQueue {
+        final int pageCount;
+        final int count;
+        final AtomicInteger next = new AtomicInteger();
+        volatile boolean cancelled;
+        // Разрешения на взятие диапазона; возвращаются, когда текст диапазона отдан в sink
+        final Semaphore window = new Semaphore(WORKERS);
+        private final AtomicReferenceArray<CompletableFuture<String>> results;
 
-            PDFTextStripper pdfStripper = new PDFTextStripper();
+        RangeQueue(int pageCount, int count) {
+            this.pageCount = pageCount;
+            this.count = count;
+            this.results = new AtomicReferenceArray<>(count);
+            for (int i = 0; i < count; i++) {
+                results.set(i, new CompletableFuture<>());
+            }
+        }
 
-            // Настраиваем извлечение текста
-            pdfStripper.setSortByPosition(true);
-            pdfStripper.setStartPage(1);
-            pdfStripper.setEndPage(document.getNumberOfPages());
+        void complete(int range, String text) {
+            CompletableFuture<String> result = results.get(range);
+            if (result != null) {
+                result.complete(text);
+            }
+        }
 
-            String text = pdfStripper.getText(document);
-            logger.debug("Извлечено {} символов из PDF: {}", text.length(), filePath);
+        /**
+         * Ошибка потока обрывает все еще не готовые диапазоны: поток мог не открыть документ вовсе
+         */
+        void fail(Throwable error) {
+            for (int i = 0; i < count; i++) {
+                CompletableFuture<String> result = results.get(i);
+                if (result != null) {
+                    result.completeExceptionally(error);
+                }
+            }
+        }
 
-            return text;
+        /**
+         * Извлечение закончено или отменено: потоки выходят на ближайшей странице или при взятии диапазона
+         */
+        void cancel() {
+            cancelled = true;
+            window.release(WORKERS);
+        }
+
+        CompletableFuture<String> result(int range) {
+            return results.get(range);
+        }
 
+        /**
+         * Текст диапазона отдан: ссылка на него больше не хранится, можно брать следующий диапазон
+         */
+        void release(int range) {
+            results.set(range, null);
+            window.release();
+        }
+    }
+
+    /**
+     * Весь текст PDF одной строкой; пустая строка при ошибке
+     */
+    public static String extractTextFromPdf(Path filePath) {
+        StringBuilder text = new StringBuilder();
+        try {
+            extractText(filePath, line -> text.append(line).append('\n'));
+            logger.debug("Извлечено {} символов из PDF: {}", text.length(), filePath);
+            return text.toString();
         } catch (IOException e) {
             logger.error("Ошибка при чтении PDF файла {}: {}", filePath, e.getMessage());
             return "";
@@ -44,6 +213,81 @@ public class PDFTextExtractor {
         }
     }
 
+    @FunctionalInterface
+    private interface DocumentLoader {
+        PDDocument load() throws IOException;
+    }
+
+    private static PDDocument open(Path filePath) throws IOException {
+        return PDDocument.load(filePath.toFile(), MemoryUsageSetting.setupMixed(MEMORY_BYTES));
+    }
+
+    private static String stripRange(PDDocument document, int startPage, int endPage,
+                                     BooleanSupplier cancelled) throws IOException {
+        PDFTextStripper stripper = new CancellableStripper(cancelled);
+        stripper.setSortByPosition(SORT_BY_POSITION);
+        stripper.setStartPage(startPage);
+        stripper.setEndPage(endPage);
+        return stripper.getText(document);
+    }
+
+    /**
+     * Проверяет отмену перед каждой страницей: поток, прерванный сторожем извлечения или
+     * остановленный после ошибки соседнего диапазона, не дочитывает документ до конца
+     */
+    private static final class CancellableStripper extends PDFTextStripper {
+        private final BooleanSupplier cancelled;
+
+        CancellableStripper(BooleanSupplier cancelled) throws IOException {
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void startPage(PDPage page) throws IOException {
+            if (cancelled.getAsBoolean() || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Извлечение текста PDF прервано");
+            }
+            super.startPage(page);
+        }
+    }
+
+    private static void emitLines(String text, Consumer<String> sink) {
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            if (end > start) {
+                sink.accept(text.substring(start, end));
+            }
+            start = end + 1;
+        }
+    }
+
+    private static String await(Future<String> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Извлечение текста PDF прервано", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Ошибка извлечения страниц PDF: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static ExecutorService newPool(int workers) {
+        return Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-extractor-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     /**
      * Проверяет, является ли файл PDF
      */
@@ -56,7 +300,7 @@ public class PDFTextExtractor {
      * Получает информацию о PDF файле
      */
     public static String getPdfInfo(Path filePath) {
-        try (PDDocument document = PDDocument.load(filePath.toFile())) {
+        try (PDDocument document = open(filePath)) {
             if (document.isEncrypted()) {
                 return "Зашифрованный PDF";
             }
@@ -1,27 +1,167 @@
 package ru.gildina.indexer.util;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+/**
+ * Цепочка анализа текста: токенизация и фильтры слов, одинаковые при индексации и при поиске.
+ * Состав цепочки задается свойством analyzer.chain (по умолчанию lowercase,valid,stopwords,stem):
+ * <ul>
+ *   <li>lowercase - нижний регистр, ё -> е</li>
+ *   <li>valid - отбрасывает числа, шум разметки, слишком короткие и длинные слова</li>
+ *   <li>stopwords - русские и английские стоп-слова</li>
+ *   <li>stem - легкий стемминг: окончания русских и английских словоформ</li>
+ * </ul>
+ */
 public class TextAnalyzer {
+    // Границы слов - буквы, цифры, подчеркивание и дефис
+    public static final Pattern TOKEN = Pattern.compile("[a-zA-Zа-яА-ЯёЁ0-9_-]+");
+    public static final String DEFAULT_CHAIN = "lowercase,valid,stopwords,stem";
+
     private static final Set<String> STOP_WORDS = Set.of(
-            "the", "and", "or", "but", "in", "on", "at", "to", "for", "of", "with", "by"
+            // английские
+            "the", "and", "or", "but", "in", "on", "at", "to", "for", "of", "with", "by",
+            "an", "is", "are", "was", "were", "be", "been", "it", "its", "as", "from", "that",
+            "this", "these", "those", "not", "no", "if", "then", "so", "than", "do", "does",
+            // русские (ё уже заменена на е)
+            "и", "в", "во", "не", "что", "он", "на", "я", "с", "со", "как", "а", "то", "все",
+            "она", "так", "его", "но", "да", "ты", "к", "у", "же", "вы", "за", "бы", "по",
+            "только", "ее", "мне", "было", "вот", "от", "меня", "еще", "нет", "о", "из", "ему",
+            "когда", "даже", "ну", "ли", "если", "уже", "или", "ни", "быть", "был", "него",
+            "до", "вас", "там", "потом", "себя", "ей", "они", "тут", "где", "есть", "для",
+            "мы", "их", "чем", "была", "сам", "без", "чего", "тоже", "себе", "под", "будет",
+            "тогда", "кто", "этот", "того", "этого", "здесь", "этом", "тем", "чтобы", "были",
+            "при", "об", "над", "тот", "через", "эти", "нас", "про", "них", "эту", "этой",
+            "перед", "том", "им", "между", "это"
+    );
+
+    private static final Set<String> NOISE_WORDS = Set.of(
+            "nbsp", "amp", "lt", "gt", "quot", "apos",
+            "http", "https", "www", "com", "org", "net",
+            "xml", "html", "body", "div", "span", "class"
     );
 
+    private static TextAnalyzer defaultAnalyzer;
+
+    private final List<TokenFilter> filters;
+    private final String chain;
+
+    public TextAnalyzer(String chain) {
+        this.chain = chain;
+        this.filters = new ArrayList<>();
+        for (String name : chain.split(",")) {
+            String filter = name.trim().toLowerCase(Locale.ROOT);
+            if (!filter.isEmpty()) {
+                filters.add(createFilter(filter));
+            }
+        }
+    }
+
+    /**
+     * Анализатор из настроек приложения - общий для индексации и поиска
+     */
+    public static synchronized TextAnalyzer getDefault() {
+        if (defaultAnalyzer == null) {
+            defaultAnalyzer = new TextAnalyzer(AppConfig.getString("analyzer.chain", DEFAULT_CHAIN));
+        }
+        return defaultAnalyzer;
+    }
+
+    public String getChain() {
+        return chain;
+    }
+
+    /**
+     * Передает в sink каждое слово текста, прошедшее цепочку фильтров
+     */
+    public void analyze(CharSequence text, Consumer<String> sink) {
+        Matcher matcher = TOKEN.matcher(text);
+        while (matcher.find()) {
+            String term = normalize(matcher.group());
+            if (term != null) {
+                sink.accept(term);
+            }
+        }
+    }
+
+    /**
+     * Уникальные слова текста в порядке появления
+     */
+    public Set<String> analyzeToSet(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        analyze(text, terms::add);
+        return terms;
+    }
+
+    /**
+     * Прогоняет одно слово через фильтры; null - слово отброшено
+     */
+    public String normalize(String token) {
+        String term = token;
+        for (TokenFilter filter : filters) {
+            term = filter.apply(term);
+            if (term == null) {
+                return null;
+            }
+        }
+        return term;
+    }
+
     public static List<String> extractWords(String text) {
-        return Arrays.stream(text.split("\\W+"))
-                .map(String::toLowerCase)
-                .filter(word -> word.length() > 2)
-                .filter(word -> !STOP_WORDS.contains(word))
-                .collect(Collectors.toList());
+        return new ArrayList<>(getDefault().analyzeToSet(text));
     }
 
     public static boolean isRelevantWord(String word) {
-        return word != null &&
-                word.length() > 2 &&
-                !STOP_WORDS.contains(word.toLowerCase()) &&
-                word.matches("[a-zA-Zа-яА-Я0-9]+");
+        return word != null && getDefault().normalize(word) != null;
+    }
+
+    private static TokenFilter createFilter(String name) {
+        switch (name) {
+            case "lowercase":
+                return token -> token.toLowerCase(Locale.ROOT).replace('ё', 'е');
+            case "valid":
+                return TextAnalyzer::validWord;
+            case "stopwords":
+                return token -> STOP_WORDS.contains(token) ? null : token;
+            case "stem":
+                return LightStemmer::stem;
+            default:
+                throw new IllegalArgumentException("Неизвестный фильтр анализатора: " + name);
+        }
+    }
+
+    private static String validWord(String word) {
+        // Слишком короткие и слишком длинные "слова" (вероятно, ошибки)
+        if (word.length() < 2 || word.length() > 50) {
+            return null;
+        }
+        if (isDigits(word) || NOISE_WORDS.contains(word)) {
+            return null;
+        }
+        // Слова только из повторяющихся символов: aaaa, bbbb
+        if (word.length() >= 3 && word.chars().allMatch(c -> c == word.charAt(0))) {
+            return null;
+        }
+        return word;
+    }
+
+    private static boolean isDigits(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (!Character.isDigit(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @FunctionalInterface
+    private interface TokenFilter {
+        String apply(String token);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,41 @@
+package ru.gildina.indexer.util;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+public class TrigramUtils {
+    /**
+     * Максимальное количество триграмм запроса, по которым сужаются кандидаты.
+     * Остальное добирается проверкой подстроки.
+     */
+    public static final int MAX_QUERY_TRIGRAMS = 32;
+
+    /**
+     * Приводит строку к виду для регистронезависимого сравнения:
+     * нижний регистр (включая кириллицу), 'ё' -> 'е', обратные слеши -> прямые
+     */
+    public static String fold(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.toLowerCase(Locale.ROOT)
+                .replace('ё', 'е')
+                .replace('\\', '/');
+    }
+
+    /**
+     * Возвращает уникальные триграммы уже нормализованной строки в порядке появления.
+     * Для строк короче трех символов возвращает пустое множество.
+     */
+    public static Set<String> trigrams(String folded) {
+        Set<String> result = new LinkedHashSet<>();
+        if (folded == null || folded.length() < 3) {
+            return result;
+        }
+        for (int i = 0; i + 3 <= folded.length(); i++) {
+            result.add(folded.substring(i, i + 3));
+        }
+        return result;
+    }
+}